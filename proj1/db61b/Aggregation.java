@@ -0,0 +1,610 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static db61b.Utils.*;
+
+/** The evaluation of a select clause whose select list contains
+ *  aggregate functions (count, min, max, sum, and avg), or that has a
+ *  group by clause.  Rows are gathered into groups having equal values
+ *  in the group by columns (a single group, if there are none) in one
+ *  pass, by hashing those values, and each group keeps a running value
+ *  of each aggregate function, so that only one entry per group is
+ *  held in memory.  The rows of a large table may instead be divided
+ *  among the threads of a ForkJoinPool, each of which aggregates its
+ *  share of them, after which the partial aggregates are combined.
+ *
+ *  The result, like all results in db61b, is a set of rows, with one
+ *  row for each group.  In the absence of a group by clause, there is
+ *  exactly one row, even when no rows are selected: the count and sum
+ *  of no rows are 0, and their minimum, maximum, and average are
+ *  empty.
+ *  @author Justin Yang */
+class Aggregation {
+
+    /** The aggregate functions. */
+    enum Function {
+        /** The number of rows. */
+        COUNT,
+        /** The least value. */
+        MIN,
+        /** The greatest value. */
+        MAX,
+        /** The sum of the values, which must be numbers. */
+        SUM,
+        /** The mean of the values, which must be numbers. */
+        AVG;
+
+        /** Return the function named NAME, or null if there is none. */
+        static Function find(String name) {
+            for (Function function : values()) {
+                if (function.toString().equals(name)) {
+                    return function;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    /** An item in the select list of an aggregating select clause. */
+    static class Item {
+        /** The column named COLUMN, which must also be named in the group
+         *  by clause. */
+        Item(String column) {
+            this(null, column);
+        }
+
+        /** FUNCTION applied to the column named COLUMN.  COLUMN may be
+         *  "*" (denoting all rows) for count. */
+        Item(Function function, String column) {
+            _function = function;
+            _column = column;
+        }
+
+        /** Return my function, or null if I am a plain column. */
+        Function getFunction() {
+            return _function;
+        }
+
+        /** Return the name of my column. */
+        String getColumn() {
+            return _column;
+        }
+
+        /** Return the title of the column of the result holding my
+         *  values: the name of my column, if I am a plain column;
+         *  otherwise, the name of my function, followed by an underscore
+         *  and the name of my column (unless that is "*"). */
+        String getTitle() {
+            if (_function == null) {
+                return _column;
+            } else if (_column.equals("*")) {
+                return _function.toString();
+            } else {
+                return _function + "_" + _column;
+            }
+        }
+
+        @Override
+        public String toString() {
+            if (_function == null) {
+                return _column;
+            }
+            return _function + "(" + _column + ")";
+        }
+
+        /** My function. */
+        private final Function _function;
+        /** The name of my column. */
+        private final String _column;
+    }
+
+    /** An aggregation producing ITEMS for each group of rows having the
+     *  same values in the columns named GROUPBY.  The rows aggregated
+     *  are rows of TABLES (the from list). */
+    Aggregation(List<Item> items, List<String> groupBy, Table... tables) {
+        _items = items;
+        _width = tables.length;
+        _groupColumns = new ArrayList<>();
+        for (String name : groupBy) {
+            _groupColumns.add(new Column(name, tables));
+        }
+        _columns = new Column[items.size()];
+        _groupIndex = new int[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            _groupIndex[i] = groupBy.indexOf(item.getColumn());
+            if (item.getFunction() == null) {
+                if (_groupIndex[i] == -1) {
+                    throw error("%s must be aggregated or in group by",
+                                item.getColumn());
+                }
+            } else if (item.getColumn().equals("*")) {
+                if (item.getFunction() != Function.COUNT) {
+                    throw error("%s(*) is not allowed", item.getFunction());
+                }
+            } else {
+                _columns[i] = new Column(item.getColumn(), tables);
+            }
+        }
+    }
+
+    /** Return the titles of the columns of my results, one per item. */
+    List<String> titles() {
+        ArrayList<String> titles = new ArrayList<>();
+        for (Item item : _items) {
+            titles.add(item.getTitle());
+        }
+        return titles;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (Item item : _items) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+            result.append(item);
+        }
+        for (int i = 0; i < _groupColumns.size(); i++) {
+            result.append(i == 0 ? " group by " : ", ");
+            result.append(_groupColumns.get(i).getName());
+        }
+        return result.toString();
+    }
+
+    /** Return a Table containing my items for each group of the rows
+     *  delivered by ROWS. */
+    Table aggregate(RowSource rows) {
+        HashMap<List<String>, Accumulator[]> groups = new HashMap<>();
+        int[] tuple = new int[_width];
+        String[] key = new String[_groupColumns.size()];
+        while (rows.next(tuple)) {
+            accumulate(groups, tuple, key);
+        }
+        return result(groups);
+    }
+
+    /** Return a Table containing my items for each group of the rows
+     *  0 .. SIZE-1 of a single table that satisfy CONDITIONS.  The rows
+     *  are divided among the threads of POOL. */
+    Table aggregate(ForkJoinPool pool, List<Condition> conditions,
+                    int size) {
+        int grain = Math.max(ParallelFilter.MIN_GRAIN,
+                             size / (4 * pool.getParallelism()));
+        return result(pool.invoke(new PartialAggregate(conditions, 0, size,
+                                                       grain)));
+    }
+
+    /** Add the row denoted by ROWS to the appropriate one of GROUPS,
+     *  creating it if necessary.  KEY, which must have one element per
+     *  group by column, is used as scratch space, so that a key is
+     *  allocated only for each new group. */
+    private void accumulate(HashMap<List<String>, Accumulator[]> groups,
+                            int[] rows, String[] key) {
+        for (int i = 0; i < key.length; i++) {
+            key[i] = _groupColumns.get(i).getFrom(rows);
+        }
+        Accumulator[] group = groups.get(Arrays.asList(key));
+        if (group == null) {
+            group = newGroup();
+            groups.put(Arrays.asList(key.clone()), group);
+        }
+        for (Accumulator acc : group) {
+            if (acc != null) {
+                acc.add(rows);
+            }
+        }
+    }
+
+    /** Return a new set of Accumulators for my items, with a null entry
+     *  for each plain column. */
+    private Accumulator[] newGroup() {
+        Accumulator[] group = new Accumulator[_items.size()];
+        for (int i = 0; i < group.length; i++) {
+            Function function = _items.get(i).getFunction();
+            if (function == null) {
+                continue;
+            }
+            switch (function) {
+            case COUNT:
+                group[i] = new Count();
+                break;
+            case MIN:
+                group[i] = new Extreme(_columns[i], -1);
+                break;
+            case MAX:
+                group[i] = new Extreme(_columns[i], 1);
+                break;
+            case SUM:
+                group[i] = new Sum(_columns[i]);
+                break;
+            case AVG:
+                group[i] = new Average(_columns[i]);
+                break;
+            default:
+                throw new IllegalStateException();
+            }
+        }
+        return group;
+    }
+
+    /** Add the groups in OTHER to those in GROUPS, combining the
+     *  aggregates of groups present in both. */
+    private static void merge(HashMap<List<String>, Accumulator[]> groups,
+                              HashMap<List<String>, Accumulator[]> other) {
+        for (Map.Entry<List<String>, Accumulator[]> entry
+                 : other.entrySet()) {
+            Accumulator[] group = groups.get(entry.getKey());
+            if (group == null) {
+                groups.put(entry.getKey(), entry.getValue());
+            } else {
+                for (int i = 0; i < group.length; i++) {
+                    if (group[i] != null) {
+                        group[i].merge(entry.getValue()[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return the Table containing my items for each of GROUPS. */
+    private Table result(HashMap<List<String>, Accumulator[]> groups) {
+        if (groups.isEmpty() && _groupColumns.isEmpty()) {
+            groups.put(Arrays.asList(new String[0]), newGroup());
+        }
+        String[] titles = new String[_items.size()];
+        ColumnType[] types = new ColumnType[_items.size()];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = _items.get(i).getTitle();
+            Function function = _items.get(i).getFunction();
+            if (function == null) {
+                types[i] =
+                    _groupColumns.get(_groupIndex[i]).getValues().getType();
+            } else {
+                types[i] = type(function, i);
+            }
+        }
+
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (Map.Entry<List<String>, Accumulator[]> entry
+                 : groups.entrySet()) {
+            String[] row = new String[titles.length];
+            Accumulator[] group = entry.getValue();
+            for (int i = 0; i < row.length; i++) {
+                if (group[i] == null) {
+                    row[i] = entry.getKey().get(_groupIndex[i]);
+                } else {
+                    row[i] = group[i].value();
+                    types[i] = unify(types[i], group[i].type());
+                }
+            }
+            rows.add(row);
+        }
+
+        Table result = new Table(titles, types);
+        result.addAll(rows);
+        return result;
+    }
+
+    /** Return the type of the values of FUNCTION, the function of my
+     *  item #I, so that the result has a type for each item even if
+     *  there are no groups. */
+    private ColumnType type(Function function, int i) {
+        switch (function) {
+        case COUNT:
+            return ColumnType.INT;
+        case AVG:
+            return ColumnType.DOUBLE;
+        default:
+            return _columns[i].getValues().getType();
+        }
+    }
+
+    /** Return a type that can hold values of types TYPE0 (which may be
+     *  null, denoting no values) and TYPE1. */
+    private static ColumnType unify(ColumnType type0, ColumnType type1) {
+        if (type0 == null || type0 == type1) {
+            return type1;
+        } else if (type0.isNumeric() && type1.isNumeric()) {
+            return ColumnType.DOUBLE;
+        } else {
+            return ColumnType.STRING;
+        }
+    }
+
+    /** A fork/join task that aggregates the rows of a single table,
+     *  within a range of row numbers, that satisfy a list of Conditions.
+     *  The range is split in halves until the pieces are small enough
+     *  to aggregate sequentially, and the groups found for the halves
+     *  are then merged. */
+    private class PartialAggregate
+        extends RecursiveTask<HashMap<List<String>, Accumulator[]>> {
+
+        /** A task that aggregates those of rows LOW .. HIGH-1 that
+         *  satisfy CONDITIONS, aggregating pieces of at most GRAIN rows
+         *  sequentially. */
+        PartialAggregate(List<Condition> conditions, int low, int high,
+                         int grain) {
+            _conditions = conditions;
+            _low = low;
+            _high = high;
+            _grain = grain;
+        }
+
+        @Override
+        protected HashMap<List<String>, Accumulator[]> compute() {
+            if (_high - _low <= _grain) {
+                HashMap<List<String>, Accumulator[]> groups =
+                    new HashMap<>();
+                int[] rows = new int[1];
+                String[] key = new String[_groupColumns.size()];
+                for (int r = _low; r < _high; r++) {
+                    rows[0] = r;
+                    if (Condition.test(_conditions, rows)) {
+                        accumulate(groups, rows, key);
+                    }
+                }
+                return groups;
+            }
+            int mid = (_low + _high) >>> 1;
+            PartialAggregate left =
+                new PartialAggregate(_conditions, _low, mid, _grain);
+            PartialAggregate right =
+                new PartialAggregate(_conditions, mid, _high, _grain);
+            left.fork();
+            HashMap<List<String>, Accumulator[]> rightGroups =
+                right.compute();
+            HashMap<List<String>, Accumulator[]> leftGroups = left.join();
+            if (leftGroups.size() < rightGroups.size()) {
+                merge(rightGroups, leftGroups);
+                return rightGroups;
+            }
+            merge(leftGroups, rightGroups);
+            return leftGroups;
+        }
+
+        /** The conditions to test. */
+        private final List<Condition> _conditions;
+        /** The range of rows to aggregate is _low .. _high-1. */
+        private final int _low, _high;
+        /** The largest range aggregated without further splitting. */
+        private final int _grain;
+    }
+
+    /** The running value of an aggregate function over a group. */
+    private abstract static class Accumulator {
+        /** Include the row denoted by ROWS. */
+        abstract void add(int[] rows);
+
+        /** Include the rows included by OTHER, which must be of the same
+         *  kind and for the same column as I am. */
+        abstract void merge(Accumulator other);
+
+        /** Return my value. */
+        abstract String value();
+
+        /** Return the type of my value. */
+        abstract ColumnType type();
+    }
+
+    /** The running value of count. */
+    private static class Count extends Accumulator {
+        @Override
+        void add(int[] rows) {
+            _count += 1;
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            _count += ((Count) other)._count;
+        }
+
+        @Override
+        String value() {
+            return Long.toString(_count);
+        }
+
+        @Override
+        ColumnType type() {
+            return ColumnType.INT;
+        }
+
+        /** The number of rows included. */
+        private long _count;
+    }
+
+    /** The running value of min or max. */
+    private static class Extreme extends Accumulator {
+        /** The least (if SIGN is -1) or greatest (if SIGN is 1) value of
+         *  COLUMN. */
+        Extreme(Column column, int sign) {
+            _values = column.getValues();
+            _slot = column.getTableIndex();
+            _sign = sign;
+            _row = -1;
+        }
+
+        @Override
+        void add(int[] rows) {
+            include(rows[_slot]);
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            int row = ((Extreme) other)._row;
+            if (row != -1) {
+                include(row);
+            }
+        }
+
+        /** Include row ROW of my column. */
+        private void include(int row) {
+            if (_row == -1 || _sign * _values.compare(row, _row) > 0) {
+                _row = row;
+            }
+        }
+
+        @Override
+        String value() {
+            return _row == -1 ? "" : _values.get(_row);
+        }
+
+        @Override
+        ColumnType type() {
+            return _row == -1 ? ColumnType.STRING : _values.getType();
+        }
+
+        /** The values of my column. */
+        private final ValueList _values;
+        /** The index in the from list of the table containing my
+         *  column. */
+        private final int _slot;
+        /** -1 for min, 1 for max. */
+        private final int _sign;
+        /** The row containing the extreme value so far, or -1 if
+         *  none. */
+        private int _row;
+    }
+
+    /** The running value of sum.  The sum is kept as an integer until a
+     *  value that is not an integer (or an overflow) is encountered. */
+    private static class Sum extends Accumulator {
+        /** The sum of the values of COLUMN. */
+        Sum(Column column) {
+            _values = column.getValues();
+            _slot = column.getTableIndex();
+            _isDouble = _values.getType() == ColumnType.DOUBLE;
+        }
+
+        @Override
+        void add(int[] rows) {
+            int row = rows[_slot];
+            _count += 1;
+            if (_values.getType() == ColumnType.INT) {
+                addLong(_values.getLong(row));
+            } else if (_values.getType().isNumeric()) {
+                addDouble(_values.getDouble(row));
+            } else {
+                String value = _values.get(row);
+                if (!_isDouble) {
+                    try {
+                        addLong(Long.parseLong(value.trim()));
+                        return;
+                    } catch (NumberFormatException excp) {
+                        /* Not an integer. */
+                    }
+                }
+                addDouble(ColumnType.parseDouble(value));
+            }
+        }
+
+        @Override
+        void merge(Accumulator other) {
+            Sum sum = (Sum) other;
+            _count += sum._count;
+            if (sum._isDouble) {
+                addDouble(sum._double);
+            }
+            addLong(sum._long);
+        }
+
+        /** Add X to my sum. */
+        private void addLong(long x) {
+            if (!_isDouble) {
+                try {
+                    _long = Math.addExact(_long, x);
+                    return;
+                } catch (ArithmeticException excp) {
+                    _isDouble = true;
+                }
+            }
+            _double += x;
+        }
+
+        /** Add X to my sum, which is henceforth kept as a double. */
+        private void addDouble(double x) {
+            _isDouble = true;
+            _double += x;
+        }
+
+        /** Return my sum. */
+        double total() {
+            return _double + _long;
+        }
+
+        /** Return the number of values included. */
+        long count() {
+            return _count;
+        }
+
+        @Override
+        String value() {
+            return _isDouble ? Double.toString(total()) : Long.toString(_long);
+        }
+
+        @Override
+        ColumnType type() {
+            return _isDouble ? ColumnType.DOUBLE : ColumnType.INT;
+        }
+
+        /** The values of my column. */
+        private final ValueList _values;
+        /** The index in the from list of the table containing my
+         *  column. */
+        private final int _slot;
+        /** The number of values included. */
+        private long _count;
+        /** True iff any value included (or the sum) is not an
+         *  integer. */
+        private boolean _isDouble;
+        /** The sum is _long + _double.  _long holds the integers
+         *  included before _isDouble became true. */
+        private long _long;
+        /** See _long. */
+        private double _double;
+    }
+
+    /** The running value of avg. */
+    private static class Average extends Sum {
+        /** The mean of the values of COLUMN. */
+        Average(Column column) {
+            super(column);
+        }
+
+        @Override
+        String value() {
+            return count() == 0 ? "" : Double.toString(total() / count());
+        }
+
+        @Override
+        ColumnType type() {
+            return count() == 0 ? ColumnType.STRING : ColumnType.DOUBLE;
+        }
+    }
+
+    /** The items in my select list. */
+    private final List<Item> _items;
+    /** The columns by which rows are grouped. */
+    private final ArrayList<Column> _groupColumns;
+    /** _columns[i] is the column to which the function of _items[i] is
+     *  applied, or null if there is none. */
+    private final Column[] _columns;
+    /** _groupIndex[i] is the index in _groupColumns of the column named
+     *  by _items[i], or -1 if it is not a group by column. */
+    private final int[] _groupIndex;
+    /** Number of tables in the from list. */
+    private final int _width;
+}
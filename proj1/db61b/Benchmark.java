@@ -0,0 +1,349 @@
+package db61b;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** A suite of benchmarks of the principal operations of db61b: loading
+ *  tables from text and binary .db files, inserting rows in batches,
+ *  selecting from one table at several selectivities, and joining two
+ *  tables whose keys overlap to varying degrees (by merging, when the
+ *  key leads both tables, and by hashing, when it does not).  The
+ *  tables are generated, with a fixed seed, in several sizes.
+ *
+ *  Each benchmark is measured in the manner of JMH: it is first run for
+ *  a number of warmup iterations, whose times are discarded, so that
+ *  the JIT compiler has settled, and then for a number of measured
+ *  iterations.  Each iteration repeats the operation until at least
+ *  MIN_ITERATION_NANOS have passed, and yields the mean time per
+ *  operation.  Results are written to the standard output as CSV, one
+ *  line per benchmark, for comparison across versions; progress is
+ *  reported on the standard error.
+ *
+ *  Usage: java db61b.Benchmark [NAME=VALUE ...], where the NAMEs are
+ *      sizes       comma-separated numbers of rows (default
+ *                  10000,100000,1000000; up to 10000000 is sensible
+ *                  given enough heap).
+ *      warmup      number of warmup iterations (default 2).
+ *      iterations  number of measured iterations (default 5).
+ *      only        comma-separated names of the benchmarks to run
+ *                  (load, insert, select, join; default all).
+ *  @author Justin Yang */
+public class Benchmark {
+
+    /** Run the benchmarks as directed by ARGS (see above). */
+    public static void main(String... args) {
+        Benchmark bench = new Benchmark();
+        try {
+            for (String arg : args) {
+                bench.configure(arg);
+            }
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        try {
+            bench.run();
+        } catch (IOException | DBException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A Benchmark with the default configuration, writing its results
+     *  to the standard output. */
+    Benchmark() {
+        _sizes = new int[] { 10_000, 100_000, 1_000_000 };
+        _warmup = 2;
+        _iterations = 5;
+        _only = Arrays.asList(BENCHMARKS);
+        _results = System.out;
+    }
+
+    /** Set the parameter given by ARG, of the form NAME=VALUE. */
+    void configure(String arg) {
+        int eq = arg.indexOf('=');
+        if (eq == -1) {
+            throw new IllegalArgumentException("expected NAME=VALUE: "
+                                               + arg);
+        }
+        String name = arg.substring(0, eq), value = arg.substring(eq + 1);
+        try {
+            switch (name) {
+            case "sizes":
+                _sizes = Arrays.stream(value.split(","))
+                    .mapToInt(Integer::parseInt).toArray();
+                break;
+            case "warmup":
+                _warmup = Integer.parseInt(value);
+                break;
+            case "iterations":
+                _iterations = Integer.parseInt(value);
+                break;
+            case "only":
+                _only = Arrays.asList(value.split(","));
+                for (String bench : _only) {
+                    if (!Arrays.asList(BENCHMARKS).contains(bench)) {
+                        throw new IllegalArgumentException(
+                            "unknown benchmark: " + bench);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown parameter: "
+                                                   + name);
+            }
+        } catch (NumberFormatException excp) {
+            throw new IllegalArgumentException("bad number in " + arg);
+        }
+        if (_warmup < 0 || _iterations < 1) {
+            throw new IllegalArgumentException("bad iteration count");
+        }
+    }
+
+    /** Run the selected benchmarks for each size, writing the results
+     *  to _results. */
+    void run() throws IOException {
+        _results.println("benchmark,param,rows,iterations,ops,"
+                         + "mean_ns_per_op,stddev_ns_per_op,"
+                         + "min_ns_per_op");
+        File dir = Files.createTempDirectory("db61b-bench").toFile();
+        try {
+            for (int size : _sizes) {
+                Table table = generate(size, new Random(SEED));
+                if (_only.contains("load")) {
+                    load(table, dir);
+                }
+                if (_only.contains("insert")) {
+                    insert(table);
+                }
+                if (_only.contains("select")) {
+                    select(table);
+                }
+                if (_only.contains("join")) {
+                    join(size);
+                }
+            }
+        } finally {
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /** Benchmark reading TABLE back from text and binary .db files
+     *  written to DIR. */
+    private void load(Table table, File dir) {
+        String text = new File(dir, "text" + table.size()).getPath(),
+            binary = new File(dir, "binary" + table.size()).getPath();
+        table.writeTable(text);
+        BinaryFormat.write(table, binary);
+        measure("load", "text", table.size(),
+                () -> Table.readTable(text).size());
+        measure("load", "binary", table.size(),
+                () -> Table.readTable(binary).size());
+        new File(text + ".db").delete();
+        new File(binary + ".db").delete();
+    }
+
+    /** Benchmark inserting the rows of TABLE into an empty table with
+     *  the same columns, all at once, and one at a time. */
+    private void insert(Table table) {
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int r = 0; r < table.size(); r++) {
+            String[] row = new String[table.columns()];
+            for (int c = 0; c < row.length; c++) {
+                row[c] = table.get(r, c);
+            }
+            rows.add(row);
+        }
+        Collections.shuffle(rows, new Random(SEED));
+        measure("insert", "batch", rows.size(), () -> {
+            Table result = emptyLike(table);
+            return result.addAll(rows);
+        });
+        measure("insert", "single", rows.size(), () -> {
+            Table result = emptyLike(table);
+            for (String[] row : rows) {
+                result.add(row);
+            }
+            return result.size();
+        });
+    }
+
+    /** Benchmark selecting two columns of TABLE, for rows whose Sel
+     *  column (uniform over 0 .. SEL_RANGE-1) is below thresholds that
+     *  give each of SELECTIVITIES. */
+    private void select(Table table) {
+        List<String> columnNames = Arrays.asList("Name", "Key");
+        for (double selectivity : SELECTIVITIES) {
+            String bound = Long.toString(Math.round(selectivity * SEL_RANGE));
+            ArrayList<Condition> conditions = new ArrayList<>();
+            conditions.add(new Condition(new Column("Sel", table), "<",
+                                         bound));
+            measure("select", "selectivity=" + selectivity, table.size(),
+                    () -> new QueryPlanner(conditions, table)
+                    .select(columnNames).toTable().size());
+        }
+    }
+
+    /** Benchmark joining two tables of SIZE rows with unique int keys, a
+     *  given fraction of which (see OVERLAPS) occur in both.  The key
+     *  is the first column of both tables in the "merge" case, and the
+     *  second in the "hash" case. */
+    private void join(int size) {
+        List<String> columnNames = Arrays.asList("Key", "Left", "Right");
+        for (double overlap : OVERLAPS) {
+            int offset = (int) Math.round((1.0 - overlap) * size);
+            for (boolean leading : new boolean[] { true, false }) {
+                Table left = keyed(size, 0, "Left", leading),
+                    right = keyed(size, offset, "Right", leading);
+                ArrayList<Condition> none = new ArrayList<>();
+                measure("join", (leading ? "merge" : "hash")
+                        + ",overlap=" + overlap, size,
+                        () -> new QueryPlanner(none, left, right)
+                        .select(columnNames).toTable().size());
+            }
+        }
+    }
+
+    /** Run OPERATION for _warmup iterations, and then for _iterations
+     *  more, writing the statistics of the latter to _results as the
+     *  result of BENCHMARK with parameter PARAM on ROWS rows. */
+    private void measure(String benchmark, String param, int rows,
+                         Operation operation) {
+        System.err.printf("%s %s %d ...%n", benchmark, param, rows);
+        double[] times = new double[_iterations];
+        long ops;
+        ops = 0;
+        for (int i = -_warmup; i < _iterations; i++) {
+            long start = System.nanoTime(), end, count;
+            count = 0;
+            do {
+                _sink += operation.run();
+                count += 1;
+                end = System.nanoTime();
+            } while (end - start < MIN_ITERATION_NANOS);
+            if (i >= 0) {
+                times[i] = (double) (end - start) / count;
+                ops += count;
+            }
+        }
+        double mean = Arrays.stream(times).average().getAsDouble(),
+            min = Arrays.stream(times).min().getAsDouble(),
+            variance = 0.0;
+        for (double time : times) {
+            variance += (time - mean) * (time - mean);
+        }
+        if (times.length > 1) {
+            variance /= times.length - 1;
+        }
+        _results.printf("%s,\"%s\",%d,%d,%d,%.0f,%.0f,%.0f%n", benchmark,
+                        param, rows, _iterations, ops, mean,
+                        Math.sqrt(variance), min);
+        _results.flush();
+    }
+
+    /** Return a table of SIZE distinct rows with columns Key (an int
+     *  unique to each row), Group (one of GROUPS strings), Sel (an int
+     *  uniform over 0 .. SEL_RANGE-1), and Name (a random string),
+     *  generated from RANDOM. */
+    static Table generate(int size, Random random) {
+        Table table = new Table(new String[] { "Key", "Group", "Sel",
+                                               "Name" },
+                                new ColumnType[] { ColumnType.INT,
+                                                   ColumnType.STRING,
+                                                   ColumnType.INT,
+                                                   ColumnType.STRING });
+        ArrayList<String[]> rows = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            rows.add(new String[] {
+                Integer.toString(k),
+                "g" + random.nextInt(GROUPS),
+                Integer.toString(random.nextInt(SEL_RANGE)),
+                Long.toString(random.nextLong() & Long.MAX_VALUE, 36)
+            });
+        }
+        table.addAll(rows);
+        return table;
+    }
+
+    /** Return a table of SIZE rows with an int column Key, holding
+     *  OFFSET .. OFFSET+SIZE-1, and a string column named OTHER.  Key
+     *  is the first column if LEADING, and the second otherwise. */
+    static Table keyed(int size, int offset, String other,
+                       boolean leading) {
+        String[] titles = leading ? new String[] { "Key", other }
+            : new String[] { other, "Key" };
+        ColumnType[] types = leading
+            ? new ColumnType[] { ColumnType.INT, ColumnType.STRING }
+            : new ColumnType[] { ColumnType.STRING, ColumnType.INT };
+        Table table = new Table(titles, types);
+        ArrayList<String[]> rows = new ArrayList<>(size);
+        for (int k = 0; k < size; k++) {
+            String key = Integer.toString(offset + k),
+                value = other.charAt(0) + Integer.toString(k % 1000);
+            rows.add(leading ? new String[] { key, value }
+                     : new String[] { value, key });
+        }
+        table.addAll(rows);
+        return table;
+    }
+
+    /** Return an empty table with the same titles and types as
+     *  TABLE. */
+    private static Table emptyLike(Table table) {
+        String[] titles = new String[table.columns()];
+        ColumnType[] types = new ColumnType[table.columns()];
+        for (int c = 0; c < titles.length; c++) {
+            titles[c] = table.getTitle(c);
+            types[c] = table.getType(c);
+        }
+        return new Table(titles, types);
+    }
+
+    /** An operation to be timed. */
+    private interface Operation {
+        /** Perform the operation, returning a value that depends on its
+         *  result (so that it cannot be optimized away). */
+        long run();
+    }
+
+    /** Names of the benchmarks. */
+    private static final String[] BENCHMARKS = {
+        "load", "insert", "select", "join"
+    };
+    /** Fractions of rows selected by the select benchmarks. */
+    private static final double[] SELECTIVITIES = {
+        0.001, 0.01, 0.1, 0.5
+    };
+    /** Fractions of keys common to both tables in the join
+     *  benchmarks. */
+    private static final double[] OVERLAPS = { 0.0, 0.1, 0.5, 1.0 };
+    /** Number of distinct values of Sel. */
+    private static final int SEL_RANGE = 1000;
+    /** Number of distinct values of Group. */
+    private static final int GROUPS = 100;
+    /** Seed for generating tables. */
+    private static final long SEED = 61;
+    /** Minimum duration of a measured iteration, in nanoseconds. */
+    private static final long MIN_ITERATION_NANOS = 100_000_000L;
+
+    /** Sizes of the tables generated. */
+    private int[] _sizes;
+    /** Numbers of warmup and measured iterations. */
+    private int _warmup, _iterations;
+    /** Names of the benchmarks to run. */
+    private List<String> _only;
+    /** Destination of results. */
+    private PrintStream _results;
+    /** Accumulates the results of operations. */
+    private long _sink;
+}
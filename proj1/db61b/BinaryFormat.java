@@ -0,0 +1,241 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Reading and writing Tables in db61b's binary file format.  A binary
+ *  .db file consists of
+ *  <ul>
+ *    <li> the eight bytes of MAGIC;
+ *    <li> the number of rows, R, and the number of columns, C, as
+ *         4-byte integers;
+ *    <li> the C column titles;
+ *    <li> C column blocks, each starting with a kind byte.  A PLAIN
+ *         block contains R string values.  An ENCODED block contains a
+ *         dictionary size, D, the D distinct values of the column, and
+ *         then the R 4-byte codes of the rows' values, each an index
+ *         into those D values.  An INT or DOUBLE block contains R
+ *         8-byte longs or doubles, respectively.
+ *  </ul>
+ *  All strings are written as a 4-byte length followed by that many
+ *  bytes of UTF-8, and all integers are big-endian.  The rows are
+ *  written in the Table's (sorted) order, so that they can be loaded
+ *  without being compared or re-sorted.  Files are loaded by mapping
+ *  them into memory, rather than reading them through a stream.
+ *  @author Justin Yang */
+class BinaryFormat {
+
+    /** Return true iff the file named FILENAME exists and starts with
+     *  the binary format's magic number. */
+    static boolean isBinary(String fileName) {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+            byte[] start = new byte[MAGIC.length];
+            return file.length() >= MAGIC.length
+                && file.read(start) == MAGIC.length
+                && Arrays.equals(start, MAGIC);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Read the binary file NAME.db, and return its contents as a
+     *  Table, using the instances in POOL of its string values. */
+    static Table read(String name, StringPool pool) {
+        try (RandomAccessFile file = new RandomAccessFile(name + ".db", "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("%s.db is too large to load", name);
+            }
+            ByteBuffer input =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            input.position(MAGIC.length);
+            int rows = input.getInt(), cols = input.getInt();
+            if (rows < 0 || cols <= 0) {
+                throw error("bad header in %s.db", name);
+            }
+            String[] titles = new String[cols];
+            for (int c = 0; c < cols; c++) {
+                titles[c] = readString(input);
+            }
+            ValueList[] columns = new ValueList[cols];
+            for (int c = 0; c < cols; c++) {
+                columns[c] = readColumn(input, rows, pool);
+            }
+            Table table = new Table(titles);
+            table.loadSorted(columns, rows);
+            return table;
+        } catch (FileNotFoundException excp) {
+            throw error("could not find %s.db", name);
+        } catch (IOException excp) {
+            throw error("problem reading from %s.db", name);
+        } catch (BufferUnderflowException | IllegalArgumentException
+                 | IndexOutOfBoundsException excp) {
+            throw error("corrupted binary file %s.db", name);
+        }
+    }
+
+    /** Read and return a column block of ROWS values from INPUT, using
+     *  the instances in POOL of its string values. */
+    private static ValueList readColumn(ByteBuffer input, int rows,
+                                        StringPool pool) {
+        byte kind = input.get();
+        if (kind == INT) {
+            LongValueList column = new LongValueList();
+            for (int r = 0; r < rows; r++) {
+                column.addLong(input.getLong());
+            }
+            return column;
+        } else if (kind == DOUBLE) {
+            DoubleValueList column = new DoubleValueList();
+            for (int r = 0; r < rows; r++) {
+                column.addDouble(input.getDouble());
+            }
+            return column;
+        } else if (kind == PLAIN) {
+            PlainValueList column = new PlainValueList();
+            for (int r = 0; r < rows; r++) {
+                column.add(pool.intern(readString(input)));
+            }
+            return column;
+        } else if (kind == ENCODED) {
+            StringDictionary dictionary = new StringDictionary();
+            int size = input.getInt();
+            for (int k = 0; k < size; k++) {
+                if (dictionary.encode(pool.intern(readString(input)))
+                    != k) {
+                    throw new IllegalArgumentException("duplicate value");
+                }
+            }
+            EncodedValueList column = new EncodedValueList(dictionary);
+            for (int r = 0; r < rows; r++) {
+                int code = input.getInt();
+                if (code < 0 || code >= size) {
+                    throw new IllegalArgumentException("bad code");
+                }
+                column.addCode(code);
+            }
+            return column;
+        } else {
+            throw new IllegalArgumentException("bad column kind");
+        }
+    }
+
+    /** Read and return a length-prefixed string from INPUT. */
+    static String readString(ByteBuffer input) {
+        int len = input.getInt();
+        if (len < 0 || len > input.remaining()) {
+            throw new IllegalArgumentException("bad string length");
+        }
+        byte[] bytes = new byte[len];
+        input.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Write the contents of TABLE into the file NAME.db in binary
+     *  format.  Any I/O errors cause a DBException. */
+    static void write(Table table, String name) {
+        try (DataOutputStream output = new DataOutputStream(
+                 new BufferedOutputStream(
+                     new FileOutputStream(name + ".db")))) {
+            int[] order = new int[table.size()];
+            int k = 0;
+            for (int row : table.rowOrder()) {
+                order[k] = row;
+                k += 1;
+            }
+            output.write(MAGIC);
+            output.writeInt(table.size());
+            output.writeInt(table.columns());
+            for (int c = 0; c < table.columns(); c++) {
+                writeString(output, table.getTitle(c));
+            }
+            for (int c = 0; c < table.columns(); c++) {
+                writeColumn(output, table.getValues(c), order);
+            }
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.db", name);
+        }
+    }
+
+    /** Write a column block for the rows of COLUMN listed in ORDER, in
+     *  that order, to OUTPUT.  An encoded column is written with only
+     *  those dictionary entries that it actually uses. */
+    private static void writeColumn(DataOutputStream output,
+                                    ValueList column, int[] order)
+        throws IOException {
+        if (column.getType() == ColumnType.INT) {
+            output.writeByte(INT);
+            for (int row : order) {
+                output.writeLong(column.getLong(row));
+            }
+            return;
+        } else if (column.getType() == ColumnType.DOUBLE) {
+            output.writeByte(DOUBLE);
+            for (int row : order) {
+                output.writeDouble(column.getDouble(row));
+            }
+            return;
+        }
+        StringDictionary dictionary = column.getDictionary();
+        if (dictionary == null) {
+            output.writeByte(PLAIN);
+            for (int row : order) {
+                writeString(output, column.get(row));
+            }
+            return;
+        }
+        int[] newCodes = new int[dictionary.size()];
+        Arrays.fill(newCodes, -1);
+        int size = 0;
+        for (int row : order) {
+            int code = column.getCode(row);
+            if (newCodes[code] == -1) {
+                newCodes[code] = size;
+                size += 1;
+            }
+        }
+        String[] values = new String[size];
+        for (int code = 0; code < newCodes.length; code++) {
+            if (newCodes[code] != -1) {
+                values[newCodes[code]] = dictionary.get(code);
+            }
+        }
+        output.writeByte(ENCODED);
+        output.writeInt(size);
+        for (String value : values) {
+            writeString(output, value);
+        }
+        for (int row : order) {
+            output.writeInt(newCodes[column.getCode(row)]);
+        }
+    }
+
+    /** Write S to OUTPUT as a length-prefixed string. */
+    static void writeString(DataOutputStream output, String s)
+        throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /** The first bytes of every binary .db file.  Since the first byte
+     *  is not a printable character, these cannot begin a text .db
+     *  file. */
+    private static final byte[] MAGIC = {
+        0, 'D', 'B', '6', '1', 'B', 'b', 1
+    };
+
+    /** Kinds of column block. */
+    private static final byte PLAIN = 0, ENCODED = 1, INT = 2, DOUBLE = 3;
+}
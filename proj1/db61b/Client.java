@@ -0,0 +1,57 @@
+package db61b;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/** A client for Server, standing in for a user at a terminal: sends its
+ *  input to the server as a script of commands, and copies the server's
+ *  replies to its output, until the server ends the session (on
+ *  reaching a quit or exit command or the end of the script).  The
+ *  output is thus what Main would have printed for the same script.
+ *
+ *  Usage: java db61b.Client [HOST] [PORT], where HOST defaults to the
+ *  local host and PORT to Server.DEFAULT_PORT.
+ *  @author Justin Yang */
+public class Client {
+
+    /** Send the standard input to the server given by ARGS, and copy
+     *  its replies to the standard output. */
+    public static void main(String... args) {
+        String host = args.length > 0 ? args[0] : "localhost";
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1])
+                : Server.DEFAULT_PORT;
+            run(host, port, System.in, System.out);
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad port number: %s%n", args[1]);
+            System.exit(1);
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Connect to the server at HOST and PORT, send it the contents of
+     *  INPUT, and copy its replies to OUTPUT until it closes the
+     *  connection.  The input is sent from another thread, so that
+     *  neither side waits for the other to read. */
+    static void run(String host, int port, InputStream input,
+                    OutputStream output) throws IOException {
+        try (Socket socket = new Socket(host, port)) {
+            Thread sender = new Thread(() -> {
+                try {
+                    input.transferTo(socket.getOutputStream());
+                    socket.shutdownOutput();
+                } catch (IOException excp) {
+                    /* The server has ended the session. */
+                }
+            }, "db61b-client");
+            sender.setDaemon(true);
+            sender.start();
+            socket.getInputStream().transferTo(output);
+            output.flush();
+        }
+    }
+}
@@ -12,18 +12,19 @@ import static db61b.Utils.*;
  *  @author Paul N. Hilfinger
 */
 class Column {
-    /** Selects column named NAME from a row of one of the given TABLES. */
+    /** Selects column named NAME from a row of one of the given TABLES.
+     *  Null elements of TABLES are skipped, but still count as positions
+     *  in the sequence. */
     Column(String name, Table... tables) {
         _tableIndex = 0;
         _name = name;
         for (Table table : tables) {
-            if (table == null) {
-                continue;
-            }
-            _column = table.findColumn(name);
-            if (_column != -1) {
-                _table = table;
-                return;
+            if (table != null) {
+                _column = table.findColumn(name);
+                if (_column != -1) {
+                    _table = table;
+                    return;
+                }
             }
             _tableIndex += 1;
         }
@@ -35,11 +36,32 @@ class Column {
         return _name;
     }
 
+    /** Return the table from which I select values. */
+    Table getTable() {
+        return _table;
+    }
+
+    /** Return the number of my column within getTable(). */
+    int getColumn() {
+        return _column;
+    }
+
+    /** Return the values of my column in getTable(). */
+    ValueList getValues() {
+        return _table.getValues(_column);
+    }
+
+    /** Return the index, in the sequence of Tables from which I was
+     *  created, of the Table from which I select values. */
+    int getTableIndex() {
+        return _tableIndex;
+    }
+
     /** Assuming that for each k, ROWS[k] is the index of a row from my
      *  kth table, return the value of my column from the appropriate
      *  row.  It is assumed that all columns with the same name have
      *  the same value. */
-    String getFrom(Integer... rows) {
+    String getFrom(int[] rows) {
         return _table.get(rows[_tableIndex], _column);
     }
 
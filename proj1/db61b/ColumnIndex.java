@@ -0,0 +1,113 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static db61b.Utils.*;
+
+/** A secondary index on one column of a Table, mapping each value that
+ *  appears in the column to the numbers of the rows containing it.  The
+ *  values are kept in order, so that the index can answer range queries
+ *  ("<", "<=", ">", ">=") as well as equality queries.
+ *  @author Justin Yang */
+class ColumnIndex {
+
+    /** An empty index on a column of type TYPE. */
+    ColumnIndex(ColumnType type) {
+        _type = type;
+        _rows = new TreeMap<>(type::compare);
+    }
+
+    /** Record that row number ROW has VALUE in my column. */
+    void add(String value, int row) {
+        ArrayList<Integer> rows = _rows.get(value);
+        if (rows == null) {
+            rows = new ArrayList<>();
+            _rows.put(value, rows);
+        }
+        rows.add(row);
+    }
+
+    /** Return true iff I can answer queries with the relation RELATION,
+     *  which is one of "<", ">", "<=", ">=", "=", or "!=". */
+    static boolean supports(String relation) {
+        return !relation.equals("!=");
+    }
+
+    /** Return the numbers of all rows whose value V in my column
+     *  satisfies V RELATION VALUE, where RELATION is one for which
+     *  supports(RELATION). */
+    List<Integer> lookup(String relation, String value) {
+        Collection<ArrayList<Integer>> buckets = buckets(relation, value);
+        if (buckets.size() == 1) {
+            return buckets.iterator().next();
+        }
+        ArrayList<Integer> result = new ArrayList<>();
+        for (Collection<Integer> bucket : buckets) {
+            result.addAll(bucket);
+        }
+        return result;
+    }
+
+    /** Set the bits of the bitmap BITS (see Utils) for all the rows of
+     *  my table that stand for the rows found by lookup(RELATION,
+     *  VALUE), without collecting those rows into a list. */
+    void mark(String relation, String value, long[] bits) {
+        for (ArrayList<Integer> bucket : buckets(relation, value)) {
+            for (int row : bucket) {
+                bits[row >>> 6] |= 1L << row;
+            }
+        }
+    }
+
+    /** Return the lists of rows whose values V in my column satisfy
+     *  V RELATION VALUE, as for lookup. */
+    private Collection<ArrayList<Integer>> buckets(String relation,
+                                                  String value) {
+        String key = _type.canonical(value);
+        NavigableMap<String, ArrayList<Integer>> range;
+        switch (relation) {
+        case "=":
+            ArrayList<Integer> rows = _rows.get(key);
+            return rows == null ? Collections.emptyList()
+                : Collections.singletonList(rows);
+        case "<":
+            range = _rows.headMap(key, false);
+            break;
+        case "<=":
+            range = _rows.headMap(key, true);
+            break;
+        case ">":
+            range = _rows.tailMap(key, false);
+            break;
+        case ">=":
+            range = _rows.tailMap(key, true);
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported relation");
+        }
+        return range.values();
+    }
+
+    /** Return the approximate number of bytes of heap that I occupy,
+     *  not counting the values in my column, which I share with my
+     *  table. */
+    long memoryUsage() {
+        long total = HEADER_BYTES + LIST_BYTES;
+        for (ArrayList<Integer> rows : _rows.values()) {
+            total += TREE_ENTRY_BYTES + HEADER_BYTES + LIST_BYTES
+                + (long) (REFERENCE_BYTES + BOXED_INT_BYTES) * rows.size();
+        }
+        return total;
+    }
+
+    /** The type of my column's values. */
+    private final ColumnType _type;
+    /** Maps each value in my column to the rows that contain it, in
+     *  the order appropriate to _type. */
+    private final TreeMap<String, ArrayList<Integer>> _rows;
+}
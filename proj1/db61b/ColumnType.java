@@ -0,0 +1,130 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** The types of values that a column may hold.  Values are always
+ *  presented to and by Tables as Strings, but a numeric column stores
+ *  and compares them as numbers.  Each value of a numeric type has a
+ *  canonical String form, into which values are converted on entry.
+ *  @author Justin Yang */
+enum ColumnType {
+    /** Arbitrary strings, ordered lexicographically. */
+    STRING("string") {
+        @Override
+        String canonical(String value) {
+            return value;
+        }
+
+        @Override
+        int compare(String value0, String value1) {
+            return ValueList.compareStrings(value0, value1);
+        }
+
+        @Override
+        ValueList newList() {
+            return new PlainValueList();
+        }
+    },
+
+    /** 64-bit integers. */
+    INT("int") {
+        @Override
+        String canonical(String value) {
+            return Long.toString(parseLong(value));
+        }
+
+        @Override
+        int compare(String value0, String value1) {
+            return Long.compare(parseLong(value0), parseLong(value1));
+        }
+
+        @Override
+        ValueList newList() {
+            return new LongValueList();
+        }
+    },
+
+    /** Double-precision floating-point numbers. */
+    DOUBLE("double") {
+        @Override
+        String canonical(String value) {
+            return Double.toString(parseDouble(value));
+        }
+
+        @Override
+        int compare(String value0, String value1) {
+            return Double.compare(parseDouble(value0),
+                                  parseDouble(value1));
+        }
+
+        @Override
+        ValueList newList() {
+            return new DoubleValueList();
+        }
+    };
+
+    /** The type whose name is NAME. */
+    ColumnType(String name) {
+        _name = name;
+    }
+
+    /** Return the canonical form of VALUE as a value of my type.
+     *  Throws a DBException if VALUE does not denote such a value. */
+    abstract String canonical(String value);
+
+    /** Return <0, 0, or >0 depending on whether VALUE0 is less than,
+     *  equal to, or greater than VALUE1, as values of my type. */
+    abstract int compare(String value0, String value1);
+
+    /** Return a new, empty ValueList for values of my type. */
+    abstract ValueList newList();
+
+    /** Return true iff my values are numbers. */
+    boolean isNumeric() {
+        return this != STRING;
+    }
+
+    /** Return the type whose name is NAME, or null if there is none. */
+    static ColumnType find(String name) {
+        for (ColumnType type : values()) {
+            if (type._name.equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return _name;
+    }
+
+    /** Return the value of VALUE as an int-typed value. */
+    static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException excp) {
+            throw error("invalid int value: '%s'", value);
+        }
+    }
+
+    /** Return the value of VALUE as a double-typed value, with -0.0
+     *  taken as 0.0. */
+    static double parseDouble(String value) {
+        try {
+            return normalize(Double.parseDouble(value.trim()));
+        } catch (NumberFormatException excp) {
+            throw error("invalid double value: '%s'", value);
+        }
+    }
+
+    /** Return VALUE, or 0.0 if it is -0.0, which would otherwise compare
+     *  unequal to 0.0 (see Double.compare), so that they form one
+     *  value in a column. */
+    static double normalize(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    /** My name, as written in create statements and .db headers. */
+    private final String _name;
+}
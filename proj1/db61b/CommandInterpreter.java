@@ -1,9 +1,11 @@
 package db61b;
 
 import java.io.PrintStream;
+import java.io.Reader;
 
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.Lock;
 
 import static db61b.Utils.*;
 
@@ -112,15 +114,82 @@ class CommandInterpreter {
 
 
     /** A new CommandInterpreter executing commands read from INP, writing
-     *  prompts on PROMPTER, if it is non-null. */
-    CommandInterpreter(Scanner inp, PrintStream prompter) {
+     *  prompts on PROMPTER, if it is non-null, on a database of its
+     *  own. */
+    CommandInterpreter(Reader inp, PrintStream prompter) {
+        this(inp, prompter, System.out, new Database());
+    }
+
+    /** A new CommandInterpreter executing commands read from INP, writing
+     *  prompts on PROMPTER, if it is non-null, and other output on
+     *  OUTPUT, on DATABASE, which it may share with other
+     *  CommandInterpreters. */
+    CommandInterpreter(Reader inp, PrintStream prompter, PrintStream output,
+                       Database database) {
         _input = new Tokenizer(inp, prompter);
-        _database = new Database();
+        _output = output;
+        _database = database;
     }
 
     /** Parse and execute one statement from the token stream.  Return true
-     *  iff the command is something other than quit or exit. */
+     *  iff the command is something other than quit or exit.  The whole
+     *  statement is read before it is executed, holding my database's
+     *  lock for reading if the statement only reads the database, and
+     *  for writing otherwise; the changes it logs are committed after
+     *  the lock is released, so that the commits of concurrent
+     *  statements may be grouped. */
     boolean statement() {
+        _input.readStatement();
+        Lock lock;
+        switch (_input.peek()) {
+        case "select": case "explain": case "print": case "show":
+        case "exit": case "quit": case "*EOF*":
+            lock = _database.lock().readLock();
+            break;
+        default:
+            lock = _database.lock().writeLock();
+            break;
+        }
+        boolean result;
+        lock.lock();
+        try {
+            result = _timing ? timedExecute() : execute();
+        } finally {
+            lock.unlock();
+        }
+        _database.commit();
+        return result;
+    }
+
+    /** Parse and execute one statement from the token stream, as for
+     *  execute(), reporting the time taken, the bytes allocated, and the
+     *  statistics of the plan of its select clause, if any. */
+    private boolean timedExecute() {
+        _selection = null;
+        long bytes = Profile.allocatedBytes(), time = System.nanoTime();
+        boolean result = execute();
+        time = System.nanoTime() - time;
+        bytes = Profile.allocatedBytes() - bytes;
+        _output.printf("Time: %.3f ms, %d bytes allocated%n",
+                       time / 1e6, bytes);
+        if (_selection != null) {
+            _output.print(_selection.profile().report());
+        }
+        return result;
+    }
+
+    /** Release the threads I use for parallel scans, if any, at the end
+     *  of input.  My database is left open. */
+    void close() {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+    }
+
+    /** Parse and execute one statement from the token stream, as for
+     *  statement(), without timing it or acquiring locks. */
+    private boolean execute() {
         switch (_input.peek()) {
         case "create":
             createStatement();
@@ -142,6 +211,18 @@ class CommandInterpreter {
         case "select":
             selectStatement();
             break;
+        case "explain":
+            explainStatement();
+            break;
+        case "set":
+            setStatement();
+            break;
+        case "drop":
+            dropStatement();
+            break;
+        case "show":
+            showStatement();
+            break;
         case "store":
             storeStatement();
             break;
@@ -154,6 +235,10 @@ class CommandInterpreter {
     /** Parse and execute a create statement from the token stream. */
     void createStatement() {
         _input.next("create");
+        if (_input.nextIs("index")) {
+            createIndexStatement();
+            return;
+        }
         _input.next("table");
         String name = name();
         Table table = tableDefinition();
@@ -161,6 +246,19 @@ class CommandInterpreter {
         _input.next(";");
     }
 
+    /** Parse and execute the remainder of a create index statement,
+     *  following the initial "create", from the token stream. */
+    void createIndexStatement() {
+        _input.next("index");
+        _input.next("on");
+        Table table = tableName();
+        _input.next("(");
+        String column = columnName();
+        _input.next(")");
+        table.createIndex(column);
+        _input.next(";");
+    }
+
     /** Parse and execute an exit or quit statement. Actually does nothing
      *  except check syntax, since statement() handles the actual exiting. */
     void exitStatement() {
@@ -174,37 +272,41 @@ class CommandInterpreter {
     void insertStatement() {
         _input.next("insert");
         _input.next("into");
+        String name = _input.peek();
         Table table = tableName();
         _input.next("values");
         int cols = table.columns();
 
-        String[] values = new String[cols];
+        ArrayList<String[]> rows = new ArrayList<>();
+        ArrayList<String> values = new ArrayList<>();
         while (true) {
             _input.next("(");
-            int k = 0;
+            values.clear();
             while (true) {
-                values[k] = literal();
-                k++;
+                values.add(literal());
                 if (!_input.nextIf(",")) {
                     break;
                 }
             }
-            table.add(values);
             _input.next(")");
+            if (values.size() != cols) {
+                throw error("wrong number of values: expected %d", cols);
+            }
+            rows.add(values.toArray(new String[cols]));
             if (!_input.nextIf(",")) {
                 break;
             }
         }
         _input.next(";");
+        _database.insert(name, rows);
     }
 
     /** Parse and execute a load statement from the token stream. */
     void loadStatement() {
         _input.next("load");
         String name = name();
-        Table table = Table.readTable(name);
-        _database.put(name, table);
-        System.out.printf("Loaded %s.db%n", name);
+        _database.load(name);
+        _output.printf("Loaded %s.db%n", name);
         _input.next(";");
     }
 
@@ -212,9 +314,9 @@ class CommandInterpreter {
     void storeStatement() {
         _input.next("store");
         String name = _input.peek();
-        Table table = tableName();
-        table.writeTable(name);
-        System.out.printf("Stored %s.db%n", name);
+        tableName();
+        _database.store(name, _input.nextIf("binary"));
+        _output.printf("Stored %s.db%n", name);
         _input.next(";");
     }
 
@@ -223,68 +325,262 @@ class CommandInterpreter {
         _input.next("print");
         String name = _input.peek();
         Table table = tableName();
-        System.out.println("Contents of " + name + ":");
-        table.print();
+        _output.println("Contents of " + name + ":");
+        table.print(_output);
         _input.next(";");
     }
 
     /** Parse and execute a select statement from the token stream. */
     void selectStatement() {
-        Table table = selectClause();
-        System.out.println("Search results:");
-        table.print();
+        Selection result = selectClause();
+        _output.println("Search results:");
+        ResultCache cache = _database.cache();
+        if (_uncachedText != null && cache.isEnabled()) {
+            Table table = result.print(_output, cache.budget());
+            if (table != null) {
+                cache.put(_uncachedText, _uncachedFrom, table);
+            }
+        } else {
+            result.print(_output);
+        }
         _input.next(";");
     }
 
+    /** Parse and execute an explain statement from the token stream,
+     *  printing the plan by which its select clause would be evaluated
+     *  (without evaluating it): one operator per line, each indented
+     *  beneath the operator that consumes its rows. */
+    void explainStatement() {
+        _input.next("explain");
+        Selection result = selectClause();
+        _input.next(";");
+        _output.println("Query plan:");
+        _output.print(result.profile().explain());
+    }
+
+    /** Parse and execute a drop statement from the token stream. */
+    void dropStatement() {
+        _input.next("drop");
+        _input.next("table");
+        String name = name();
+        _input.next(";");
+        if (_database.remove(name) == null) {
+            throw error("unknown table: %s", name);
+        }
+    }
+
+    /** Parse and execute a show statement from the token stream.
+     *  "show memory;" reports the approximate heap space used by each
+     *  table, by the string pool, by cached results, and by all of them
+     *  together. */
+    void showStatement() {
+        _input.next("show");
+        _input.next("memory");
+        _input.next(";");
+        long total = 0;
+        _output.println("Memory usage:");
+        for (String name : _database.names()) {
+            Table table = _database.get(name);
+            long bytes = table.memoryUsage();
+            total += bytes;
+            _output.printf("  %s: %d rows, %d bytes%n", name,
+                           table.size(), bytes);
+        }
+        StringPool pool = _database.pool();
+        total += pool.memoryUsage();
+        _output.printf("  string pool: %d values, %d bytes%n", pool.size(),
+                       pool.memoryUsage());
+        ResultCache cache = _database.cache();
+        total += cache.memoryUsage();
+        _output.printf("  cached results: %d, %d bytes%n", cache.size(),
+                       cache.memoryUsage());
+        _output.printf("  total: %d bytes%n", total);
+    }
+
+    /** Parse and execute a set statement from the token stream.  The
+     *  statement "set parallelism N;" makes single-table scans use N
+     *  threads (sequential scanning if N is 1).  The statement "set
+     *  timing on;" causes the time taken by each subsequent statement,
+     *  and the bytes it allocates, to be reported after it executes,
+     *  along with the statistics of each operator in the plan of its
+     *  select clause, if any, until "set timing off;".  The statement
+     *  "set cache N;" limits the results of select statements kept for
+     *  reuse to N kilobytes in all (none, if N is 0).  The statement
+     *  "set wal on;" causes the changes to each table loaded or stored
+     *  to be logged next to its .db file, and made durable at the end
+     *  of each statement, until "set wal off;" (see Database). */
+    void setStatement() {
+        _input.next("set");
+        if (_input.nextIf("cache")) {
+            long kilobytes;
+            try {
+                kilobytes = Long.parseLong(_input.next(Tokenizer.NUMBER));
+            } catch (NumberFormatException excp) {
+                kilobytes = -1;
+            }
+            if (kilobytes < 0 || kilobytes > MAX_CACHE_KILOBYTES) {
+                throw error("cache size must be at most %d",
+                            MAX_CACHE_KILOBYTES);
+            }
+            _input.next(";");
+            _database.cache().setBudget(kilobytes << 10);
+            return;
+        }
+        if (_input.nextIf("wal")) {
+            boolean on = _input.nextIf("on");
+            if (!on) {
+                _input.next("off");
+            }
+            _input.next(";");
+            _database.setLogging(on);
+            return;
+        }
+        if (_input.nextIf("timing")) {
+            if (_input.nextIf("on")) {
+                _timing = true;
+            } else {
+                _input.next("off");
+                _timing = false;
+            }
+            _input.next(";");
+            return;
+        }
+        _input.next("parallelism");
+        int threads;
+        try {
+            threads = Integer.parseInt(_input.next(Tokenizer.NUMBER));
+        } catch (NumberFormatException excp) {
+            threads = 0;
+        }
+        if (threads < 1 || threads > MAX_PARALLELISM) {
+            throw error("parallelism must be between 1 and %d",
+                        MAX_PARALLELISM);
+        }
+        _input.next(";");
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+        _pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
     /** Parse and execute a table definition, returning the specified
      *  table. */
     Table tableDefinition() {
         Table table;
         if (_input.nextIf("(")) {
             ArrayList<String> titles = new ArrayList<>();
+            ArrayList<ColumnType> types = new ArrayList<>();
             while (true) {
                 titles.add(columnName());
+                types.add(columnType());
                 if (!_input.nextIf(",")) {
                     break;
                 }
             }
             _input.next(")");
-            table = new Table(titles);
+            table = new Table(titles.toArray(new String[titles.size()]),
+                              types.toArray(new ColumnType[types.size()]));
         } else {
             _input.next("as");
-            table = selectClause();
+            table = selectClause().toTable();
         }
         return table;
     }
 
     /** Parse and execute a select clause from the token stream, returning the
-     *  resulting table. */
-    Table selectClause() {
-        Table table;
-
+     *  resulting (lazily evaluated) Selection.  If the result of an
+     *  identical clause on the same, unchanged, tables is cached, returns
+     *  that.  Otherwise, sets _uncachedText and _uncachedFrom to allow
+     *  the caller to cache the result. */
+    Selection selectClause() {
+        int start = _input.position();
+        _uncachedText = null;
+        _uncachedFrom = null;
         _input.next("select");
-        ArrayList<String> columnNames = new ArrayList<>();
+        ArrayList<Aggregation.Item> items = new ArrayList<>();
+        boolean aggregated = false;
         while (true) {
-            columnNames.add(columnName());
+            Aggregation.Item item = selectItem();
+            aggregated |= item.getFunction() != null;
+            items.add(item);
             if (!_input.nextIf(",")) {
                 break;
             }
         }
 
         _input.next("from");
-        Table table1 = tableName(), table2 = null;
-        if (_input.nextIf(",")) {
-            table2 = tableName();
+        ArrayList<Table> tables = new ArrayList<>();
+        ArrayList<String> names = new ArrayList<>();
+        while (true) {
+            names.add(_input.peek());
+            tables.add(tableName());
+            if (!_input.nextIf(",")) {
+                break;
+            }
         }
+        Table[] from = tables.toArray(new Table[tables.size()]);
 
-        ArrayList<Condition> conditions = conditionClause(table1, table2);
+        ArrayList<Condition> conditions = conditionClause(from);
+        ArrayList<String> groupBy = groupByClause();
 
-        if (table2 == null) {
-            table = table1.select(columnNames, conditions);
+        String text = _input.text(start);
+        Table cached = _database.cache().get(text, from);
+        if (cached != null) {
+            _selection = Selection.of(cached, "cached result");
+            _selection.profile().setTimed(_timing);
+            return _selection;
+        }
+        _uncachedText = text;
+        _uncachedFrom = from;
+
+        QueryPlanner planner = new QueryPlanner(conditions, from);
+        planner.setNames(names.toArray(new String[names.size()]));
+        planner.setPool(_pool);
+        if (aggregated || !groupBy.isEmpty()) {
+            Aggregation aggregation = new Aggregation(items, groupBy, from);
+            _selection = planner.aggregate(aggregation);
         } else {
-            table = table1.select(table2, columnNames, conditions);
+            ArrayList<String> columnNames = new ArrayList<>();
+            for (Aggregation.Item item : items) {
+                columnNames.add(item.getColumn());
+            }
+            _selection = planner.select(columnNames);
         }
-        return table;
+        _selection.profile().setTimed(_timing);
+        return _selection;
+    }
+
+    /** Parse and return an item of a select list from the token stream:
+     *  either a column name or an aggregate function applied to one
+     *  (or, for count, to "*"). */
+    Aggregation.Item selectItem() {
+        String name = columnName();
+        if (!_input.nextIf("(")) {
+            return new Aggregation.Item(name);
+        }
+        Aggregation.Function function = Aggregation.Function.find(name);
+        if (function == null) {
+            throw error("unknown function: %s", name);
+        }
+        String column = _input.nextIf("*") ? "*" : columnName();
+        _input.next(")");
+        return new Aggregation.Item(function, column);
+    }
+
+    /** Parse and return the list of column names in a group by clause
+     *  from the token stream (empty if there is no such clause). */
+    ArrayList<String> groupByClause() {
+        ArrayList<String> columnNames = new ArrayList<>();
+        if (_input.nextIf("group")) {
+            _input.next("by");
+            while (true) {
+                columnNames.add(columnName());
+                if (!_input.nextIf(",")) {
+                    break;
+                }
+            }
+        }
+        return columnNames;
     }
 
     /** Parse and return a valid name (identifier) from the token stream. */
@@ -299,6 +595,20 @@ class CommandInterpreter {
         return name();
     }
 
+    /** Parse an optional column type from the token stream, and return
+     *  the type it denotes (string, if it is omitted). */
+    ColumnType columnType() {
+        if (!_input.nextIs(Tokenizer.IDENTIFIER)) {
+            return ColumnType.STRING;
+        }
+        String name = name();
+        ColumnType type = ColumnType.find(name);
+        if (type == null) {
+            throw error("unknown column type: %s", name);
+        }
+        return type;
+    }
+
     /** Parse a valid table name from the token stream, and return the Table
      *  that it designates, which must be loaded. */
     Table tableName() {
@@ -338,8 +648,9 @@ class CommandInterpreter {
     Condition condition(Table... tables) {
         Column column1 = new Column(columnName(), tables);
         String relation = _input.next();
-        if (_input.peek().charAt(0) == '\'') {
-            return new Condition(column1, relation, literal());
+        if (_input.nextIs(Tokenizer.LITERAL)) {
+            return new Condition(column1, relation,
+                                 _database.pool().find(literal()));
         } else {
             Column column2 = new Column(columnName(), tables);
             return new Condition(column1, relation, column2);
@@ -360,8 +671,28 @@ class CommandInterpreter {
         }
     }
 
+    /** Largest permitted value of "set parallelism". */
+    private static final int MAX_PARALLELISM = 256;
+    /** Maximum size of the result cache, in kilobytes. */
+    private static final long MAX_CACHE_KILOBYTES = Long.MAX_VALUE >> 10;
+
     /** The command input source. */
     private Tokenizer _input;
+    /** Destination of output other than prompts. */
+    private PrintStream _output;
     /** Database containing all tables. */
     private Database _database;
+    /** Pool of threads used for parallel scans, or null if scans are
+     *  sequential. */
+    private ForkJoinPool _pool;
+    /** True iff statements are to be timed (see setStatement). */
+    private boolean _timing;
+    /** The Selection produced by the most recent select clause, or null
+     *  if the current statement has none. */
+    private Selection _selection;
+    /** The normalized text of the most recent select clause, if its
+     *  result was not cached, or null. */
+    private String _uncachedText;
+    /** The tables selected from by the clause _uncachedText. */
+    private Table[] _uncachedFrom;
 }
@@ -1,8 +1,14 @@
 package db61b;
 
+import java.util.Arrays;
 import java.util.List;
 
-/** Represents a single 'where' condition in a 'select' command.
+import static db61b.Utils.*;
+
+/** Represents a single 'where' condition in a 'select' command.  When
+ *  it is created, a Condition is compiled into a Predicate specialized
+ *  to its relation and to the kinds of its operands, so that testing a
+ *  row involves no parsing of the relation and no allocation.
  *  @author Justin Yang */
 class Condition {
 
@@ -10,9 +16,7 @@ class Condition {
      *  are column designators. and RELATION is one of the
      *  strings "<", ">", "<=", ">=", "=", or "!=". */
     Condition(Column col1, String relation, Column col2) {
-        this._col1 = col1;
-        this._col2 = col2;
-        this._relation = relation;
+        this(col1, relation, col2, null);
     }
 
     /** A Condition representing COL1 RELATION 'VAL2', where COL1 is
@@ -21,57 +25,616 @@ class Condition {
      *  ">=", "=", or "!=".
      */
     Condition(Column col1, String relation, String val2) {
-        this(col1, relation, (Column) null);
+        this(col1, relation, null, val2);
+    }
+
+    /** A Condition representing COL1 RELATION COL2, if COL2 is not
+     *  null, or COL1 RELATION 'VAL2' otherwise. */
+    private Condition(Column col1, String relation, Column col2,
+                      String val2) {
+        _col1 = col1;
+        _col2 = col2;
         _val2 = val2;
+        _relation = relation;
+        _predicate = compile(col1, Relation.find(relation), col2, val2);
     }
 
     /** Assuming that ROWS are row indices in the respective tables
      *  from which my columns are selected, returns the result of
      *  performing the test I denote. */
-    boolean test(Integer... rows) {
-        String val1 = _col1.getFrom(rows);
-        String val2;
+    boolean test(int[] rows) {
+        return _predicate.test(rows);
+    }
+
+    /** Return my first operand. */
+    Column getColumn1() {
+        return _col1;
+    }
+
+    /** Return my second operand if it is a column, or null if it is a
+     *  literal. */
+    Column getColumn2() {
+        return _col2;
+    }
+
+    /** Return my relation string. */
+    String getRelation() {
+        return _relation;
+    }
+
+    /** Return my second operand if it is a literal, or null if it is a
+     *  column. */
+    String getLiteral() {
+        return _val2;
+    }
+
+    /** Return a Condition that performs the same test as I do on the
+     *  columns with the same names as mine selected from TABLES. */
+    Condition bind(Table... tables) {
+        Column col1 = new Column(_col1.getName(), tables);
         if (_val2 == null) {
-            val2 = _col2.getFrom(rows);
-        } else {
-            val2 = _val2;
-        }
-
-        int cmp = val1.compareTo(val2);
-
-        switch (_relation) {
-        case "<":
-            return cmp < 0;
-        case ">":
-            return cmp > 0;
-        case "<=":
-            return cmp <= 0;
-        case ">=":
-            return cmp >= 0;
-        case "=":
-            return cmp == 0;
-        case "!=":
-            return cmp != 0;
-        default:
-            return false;
+            return new Condition(col1, _relation,
+                                 new Column(_col2.getName(), tables));
+        }
+        return new Condition(col1, _relation, _val2);
+    }
+
+    @Override
+    public String toString() {
+        if (_val2 == null) {
+            return String.format("%s %s %s", _col1.getName(), _relation,
+                                 _col2.getName());
         }
+        return String.format("%s %s '%s'", _col1.getName(), _relation,
+                             _val2);
     }
 
     /** Return true iff ROWS satisfies all CONDITIONS. */
-    static boolean test(List<Condition> conditions, Integer... rows) {
-        for (Condition condition : conditions) {
-            if (!condition.test(rows)) {
+    static boolean test(List<Condition> conditions, int[] rows) {
+        for (int i = 0; i < conditions.size(); i++) {
+            if (!conditions.get(i).test(rows)) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Clear each bit of the bitmap BITS (see Utils) for rows LOW ..
+     *  HIGH-1 of a table that stands for a row not satisfying all of
+     *  CONDITIONS, which refer to that table alone, so that BITS
+     *  becomes the AND of its original value and the bitmaps of
+     *  CONDITIONS.  Conditions that can be evaluated directly from the
+     *  arrays holding their columns' values (comparisons of numeric or
+     *  dictionary-encoded columns with literals) are applied first, a
+     *  word of 64 rows at a time; the others are then tested only on
+     *  the rows that remain. */
+    static void filter(List<Condition> conditions, long[] bits, int low,
+                       int high) {
+        for (Condition cond : conditions) {
+            if (cond._predicate.vectorized()) {
+                cond._predicate.and(bits, low, high);
+            }
+        }
+        for (Condition cond : conditions) {
+            if (!cond._predicate.vectorized()) {
+                cond._predicate.and(bits, low, high);
+            }
+        }
+    }
+
+    /** Return a long whose order, as a signed number, among the results
+     *  for all doubles is the order of X according to Double.compare,
+     *  so that doubles may be compared as longs. */
+    private static long ordered(double x) {
+        long bits = Double.doubleToLongBits(x);
+        return bits ^ (bits >> 63 & Long.MAX_VALUE);
+    }
+
+    /** Return a Predicate for COL1 RELATION COL2, if COL2 is not null,
+     *  or else for COL1 RELATION 'VAL2'.  Equality tests between values
+     *  encoded by the same dictionary compare codes only.  The
+     *  representations of the columns are fixed at this point, so it
+     *  is assumed that they do not change while the result is in
+     *  use. */
+    private static Predicate compile(Column col1, Relation relation,
+                                     Column col2, String val2) {
+        ValueList values1 = col1.getValues();
+        int table1 = col1.getTableIndex();
+        StringDictionary dict = values1.getDictionary();
+        boolean equality =
+            relation == Relation.EQ || relation == Relation.NE;
+        if (col2 != null) {
+            ValueList values2 = col2.getValues();
+            int table2 = col2.getTableIndex();
+            if (equality && dict != null
+                && dict == values2.getDictionary()) {
+                return new CodesEqual(values1, table1, values2, table2,
+                                      relation == Relation.EQ);
+            }
+            return new Compare(new ColumnComparison(values1, table1,
+                                                    values2, table2),
+                               relation);
+        }
+        if (equality && dict != null) {
+            int code = dict.find(val2);
+            if (code == -1) {
+                return new Constant(relation == Relation.NE);
+            }
+            return new CodeEquals(values1, table1, code,
+                                  relation == Relation.EQ);
+        }
+        switch (values1.getType()) {
+        case INT:
+            return new Compare(
+                new LongLiteralComparison(values1, table1,
+                                          ColumnType.parseLong(val2)),
+                relation);
+        case DOUBLE:
+            return new Compare(
+                new DoubleLiteralComparison(values1, table1,
+                                            ColumnType.parseDouble(val2)),
+                relation);
+        default:
+            return new Compare(new LiteralComparison(values1, table1, val2),
+                               relation);
+        }
+    }
+
+    /** The relations that may appear in a Condition. */
+    private enum Relation {
+        /** Less than. */
+        LT("<") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp < 0;
+            }
+        },
+        /** Greater than. */
+        GT(">") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp > 0;
+            }
+        },
+        /** Less than or equal. */
+        LE("<=") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp <= 0;
+            }
+        },
+        /** Greater than or equal. */
+        GE(">=") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp >= 0;
+            }
+        },
+        /** Equal. */
+        EQ("=") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp == 0;
+            }
+        },
+        /** Not equal. */
+        NE("!=") {
+            @Override
+            boolean holds(int cmp) {
+                return cmp != 0;
+            }
+        };
+
+        /** The relation denoted by SYMBOL. */
+        Relation(String symbol) {
+            _symbol = symbol;
+        }
+
+        /** Return true iff I hold between two values whose comparison
+         *  (as by compareTo) yields CMP. */
+        abstract boolean holds(int cmp);
+
+        /** Return my truth table: a number whose bit 0, 1, or 2 is set
+         *  iff I hold between two values whose comparison yields a
+         *  negative number, zero, or a positive number, respectively.
+         *  Thus I hold for a comparison yielding CMP iff bit
+         *  Integer.signum(CMP) + 1 is set. */
+        int truth() {
+            return (holds(-1) ? 1 : 0) | (holds(0) ? 2 : 0)
+                | (holds(1) ? 4 : 0);
+        }
+
+        /** Return the relation denoted by SYMBOL. */
+        static Relation find(String symbol) {
+            for (Relation relation : values()) {
+                if (relation._symbol.equals(symbol)) {
+                    return relation;
+                }
+            }
+            throw error("unknown relation: %s", symbol);
+        }
+
+        /** The symbol for this relation. */
+        private final String _symbol;
+    }
+
+    /** A compiled test on a combination of rows.  ROWS[k] in the
+     *  methods below is a row number in the kth table of the select
+     *  clause. */
+    private abstract static class Predicate {
+        /** Return true iff ROWS satisfies me. */
+        abstract boolean test(int[] rows);
+
+        /** Return true iff and() evaluates me from the arrays holding
+         *  my columns' values, rather than by testing rows one at a
+         *  time. */
+        boolean vectorized() {
+            return false;
+        }
+
+        /** Clear each bit of the bitmap BITS for rows LOW .. HIGH-1 of
+         *  the single table to which I refer that stands for a row not
+         *  satisfying me.  By default, tests each row whose bit is set
+         *  in turn. */
+        void and(long[] bits, int low, int high) {
+            int[] rows = new int[1];
+            for (int w = 0; w < words(high - low); w++) {
+                long word = bits[w], kept = word;
+                while (word != 0) {
+                    int b = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    rows[0] = low + (w << 6) + b;
+                    if (!test(rows)) {
+                        kept &= ~(1L << b);
+                    }
+                }
+                bits[w] = kept;
+            }
+        }
+    }
+
+    /** A Predicate that applies a Relation to the result of comparing
+     *  two values. */
+    private static class Compare extends Predicate {
+        /** Tests that COMPARISON yields a result satisfying RELATION. */
+        Compare(Comparison comparison, Relation relation) {
+            _comparison = comparison;
+            _relation = relation;
+            _truth = relation.truth();
+        }
+
+        @Override
+        boolean test(int[] rows) {
+            return _relation.holds(_comparison.compare(rows));
+        }
+
+        @Override
+        boolean vectorized() {
+            return _comparison.vectorized();
+        }
+
+        @Override
+        void and(long[] bits, int low, int high) {
+            _comparison.and(bits, low, high, _truth);
+        }
+
+        /** Produces the comparison result. */
+        private final Comparison _comparison;
+        /** Relation required of the comparison result. */
+        private final Relation _relation;
+        /** The truth table of _relation. */
+        private final int _truth;
+    }
+
+    /** A Predicate that tests whether a dictionary-encoded value has
+     *  (or does not have) a particular code. */
+    private static class CodeEquals extends Predicate {
+        /** Tests that the value of VALUES in row ROWS[TABLE] has code
+         *  CODE, if EQUAL, or does not, if !EQUAL. */
+        CodeEquals(ValueList values, int table, int code, boolean equal) {
+            _values = values;
+            _table = table;
+            _code = code;
+            _equal = equal;
+        }
+
+        @Override
+        boolean test(int[] rows) {
+            return (_values.getCode(rows[_table]) == _code) == _equal;
+        }
+
+        @Override
+        boolean vectorized() {
+            return _values.codes() != null;
+        }
+
+        @Override
+        void and(long[] bits, int low, int high) {
+            int[] codes = _values.codes();
+            if (codes == null) {
+                super.and(bits, low, high);
+                return;
+            }
+            for (int w = 0; w < words(high - low); w++) {
+                if (bits[w] == 0) {
+                    continue;
+                }
+                int base = low + (w << 6), n = Math.min(64, high - base);
+                long mask = 0;
+                for (int b = 0; b < n; b++) {
+                    int x = codes[base + b] ^ _code;
+                    mask |= (long) (~(x | -x) >>> 31) << b;
+                }
+                bits[w] &= _equal ? mask : ~mask;
+            }
+        }
+
+        /** The values tested. */
+        private final ValueList _values;
+        /** Index of the table containing _values. */
+        private final int _table;
+        /** The code tested against. */
+        private final int _code;
+        /** True iff testing for equality rather than inequality. */
+        private final boolean _equal;
+    }
+
+    /** A Predicate that tests whether two values encoded by the same
+     *  dictionary are equal (or unequal). */
+    private static class CodesEqual extends Predicate {
+        /** Tests that the value of VALUES1 in row ROWS[TABLE1] and of
+         *  VALUES2 in row ROWS[TABLE2] are equal, if EQUAL, or are not,
+         *  if !EQUAL. */
+        CodesEqual(ValueList values1, int table1,
+                   ValueList values2, int table2, boolean equal) {
+            _values1 = values1;
+            _table1 = table1;
+            _values2 = values2;
+            _table2 = table2;
+            _equal = equal;
+        }
+
+        @Override
+        boolean test(int[] rows) {
+            return (_values1.getCode(rows[_table1])
+                    == _values2.getCode(rows[_table2])) == _equal;
+        }
+
+        /** The values compared. */
+        private final ValueList _values1, _values2;
+        /** Indices of the tables containing _values1 and _values2. */
+        private final int _table1, _table2;
+        /** True iff testing for equality rather than inequality. */
+        private final boolean _equal;
+    }
+
+    /** A Predicate that always yields the same result. */
+    private static class Constant extends Predicate {
+        /** A Predicate that always yields RESULT. */
+        Constant(boolean result) {
+            _result = result;
+        }
+
+        @Override
+        boolean test(int[] rows) {
+            return _result;
+        }
+
+        @Override
+        boolean vectorized() {
+            return true;
+        }
+
+        @Override
+        void and(long[] bits, int low, int high) {
+            if (!_result) {
+                Arrays.fill(bits, 0, words(high - low), 0L);
+            }
+        }
+
+        /** My result. */
+        private final boolean _result;
+    }
+
+    /** A comparison of two values selected from a combination of
+     *  rows. */
+    private abstract static class Comparison {
+        /** Return <0, 0, or >0 depending on whether my first value in
+         *  ROWS is less than, equal to, or greater than my second. */
+        abstract int compare(int[] rows);
+
+        /** Return true iff and() works from the arrays holding my
+         *  values, rather than by comparing rows one at a time. */
+        boolean vectorized() {
+            return false;
+        }
+
+        /** Clear each bit of the bitmap BITS for rows LOW .. HIGH-1 of
+         *  the single table to which I refer that stands for a row
+         *  whose comparison does not satisfy the relation whose truth
+         *  table (see Relation.truth) is TRUTH.  By default, compares
+         *  each row whose bit is set in turn. */
+        void and(long[] bits, int low, int high, int truth) {
+            int[] rows = new int[1];
+            for (int w = 0; w < words(high - low); w++) {
+                long word = bits[w], kept = word;
+                while (word != 0) {
+                    int b = Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    rows[0] = low + (w << 6) + b;
+                    int cmp = Integer.signum(compare(rows));
+                    if ((truth >>> (cmp + 1) & 1) == 0) {
+                        kept &= ~(1L << b);
+                    }
+                }
+                bits[w] = kept;
+            }
+        }
+    }
+
+    /** A comparison of a column's values with a literal. */
+    private static class LiteralComparison extends Comparison {
+        /** Compares the value of VALUES in row ROWS[TABLE] with
+         *  LITERAL. */
+        LiteralComparison(ValueList values, int table, String literal) {
+            _values = values;
+            _table = table;
+            _literal = literal;
+        }
+
+        @Override
+        int compare(int[] rows) {
+            return ValueList.compareStrings(_values.get(rows[_table]),
+                                            _literal);
+        }
+
+        /** The values compared. */
+        private final ValueList _values;
+        /** Index of the table containing _values. */
+        private final int _table;
+        /** The literal compared against. */
+        private final String _literal;
+    }
+
+    /** A comparison of an int column's values with a literal. */
+    private static class LongLiteralComparison extends Comparison {
+        /** Compares the value of VALUES in row ROWS[TABLE] with
+         *  LITERAL. */
+        LongLiteralComparison(ValueList values, int table,
+                              long literal) {
+            _values = values;
+            _table = table;
+            _literal = literal;
+        }
+
+        @Override
+        int compare(int[] rows) {
+            return Long.compare(_values.getLong(rows[_table]), _literal);
+        }
+
+        @Override
+        boolean vectorized() {
+            return _values.longs() != null;
+        }
+
+        @Override
+        void and(long[] bits, int low, int high, int truth) {
+            long[] values = _values.longs();
+            if (values == null) {
+                super.and(bits, low, high, truth);
+                return;
+            }
+            long lt = truth & 1, eq = truth >>> 1 & 1, gt = truth >>> 2;
+            for (int w = 0; w < words(high - low); w++) {
+                if (bits[w] == 0) {
+                    continue;
+                }
+                int base = low + (w << 6), n = Math.min(64, high - base);
+                long mask = 0;
+                for (int b = 0; b < n; b++) {
+                    long v = values[base + b];
+                    mask |= ((v < _literal ? lt : 0)
+                             | (v == _literal ? eq : 0)
+                             | (v > _literal ? gt : 0)) << b;
+                }
+                bits[w] &= mask;
+            }
+        }
+
+        /** The values compared. */
+        private final ValueList _values;
+        /** Index of the table containing _values. */
+        private final int _table;
+        /** The literal compared against. */
+        private final long _literal;
+    }
+
+    /** A comparison of a double column's values with a literal. */
+    private static class DoubleLiteralComparison extends Comparison {
+        /** Compares the value of VALUES in row ROWS[TABLE] with
+         *  LITERAL. */
+        DoubleLiteralComparison(ValueList values, int table,
+                                double literal) {
+            _values = values;
+            _table = table;
+            _literal = literal;
+        }
+
+        @Override
+        int compare(int[] rows) {
+            return Double.compare(_values.getDouble(rows[_table]),
+                                  _literal);
+        }
+
+        @Override
+        boolean vectorized() {
+            return _values.doubles() != null;
+        }
+
+        @Override
+        void and(long[] bits, int low, int high, int truth) {
+            double[] values = _values.doubles();
+            if (values == null) {
+                super.and(bits, low, high, truth);
+                return;
+            }
+            long literal = ordered(_literal);
+            long lt = truth & 1, eq = truth >>> 1 & 1, gt = truth >>> 2;
+            for (int w = 0; w < words(high - low); w++) {
+                if (bits[w] == 0) {
+                    continue;
+                }
+                int base = low + (w << 6), n = Math.min(64, high - base);
+                long mask = 0;
+                for (int b = 0; b < n; b++) {
+                    long v = ordered(values[base + b]);
+                    mask |= ((v < literal ? lt : 0)
+                             | (v == literal ? eq : 0)
+                             | (v > literal ? gt : 0)) << b;
+                }
+                bits[w] &= mask;
+            }
+        }
+
+        /** The values compared. */
+        private final ValueList _values;
+        /** Index of the table containing _values. */
+        private final int _table;
+        /** The literal compared against. */
+        private final double _literal;
+    }
+
+    /** A comparison of the values of two columns.  Two numeric columns
+     *  are compared numerically. */
+    private static class ColumnComparison extends Comparison {
+        /** Compares the value of VALUES1 in row ROWS[TABLE1] with that
+         *  of VALUES2 in row ROWS[TABLE2]. */
+        ColumnComparison(ValueList values1, int table1,
+                         ValueList values2, int table2) {
+            _values1 = values1;
+            _table1 = table1;
+            _values2 = values2;
+            _table2 = table2;
+        }
+
+        @Override
+        int compare(int[] rows) {
+            return _values1.compare(rows[_table1], _values2, rows[_table2]);
+        }
+
+        /** The values compared. */
+        private final ValueList _values1, _values2;
+        /** Indices of the tables containing _values1 and _values2. */
+        private final int _table1, _table2;
+    }
+
     /** The operands of this condition.  _col2 is null if the second operand
      *  is a literal. */
-    private Column _col1, _col2;
+    private final Column _col1, _col2;
     /** Second operand, if literal (otherwise null). */
-    private String _val2;
+    private final String _val2;
     /** The relation string to use in a test. */
-    private String _relation;
+    private final String _relation;
+    /** The compiled form of this condition. */
+    private final Predicate _predicate;
 }
@@ -1,49 +1,278 @@
 package db61b;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-/** A collection of Tables, indexed by name.
+import static db61b.Utils.*;
+
+/** A collection of Tables, indexed by name, together with a cache of
+ *  the results of select clauses on them.  A table loaded from or
+ *  stored into a .db file has that file as its home.  While logging is
+ *  on, every table has a home, and its creation and the changes to it
+ *  are recorded in its TableLog, and so made durable without rewriting
+ *  the file.  Equal string values loaded or inserted into my tables
+ *  share one instance from my StringPool.
+ *
+ *  A database may be shared by concurrent sessions (see Server), which
+ *  hold its lock() for reading while executing statements that do not
+ *  modify it, and for writing otherwise.  Its methods do not acquire
+ *  the lock themselves, except for commit, which requires none.
  *  @author Justin Yang */
 class Database {
     /** An empty database. */
     public Database() {
-        _tables = new ArrayList<>();
-        _names = new ArrayList<>();
-        _length = 0;
+        _tables = new HashMap<>();
+        _cache = new ResultCache(DEFAULT_CACHE_BUDGET);
+        _homes = new HashMap<>();
+        _logs = new HashMap<>();
+        _lock = new ReentrantReadWriteLock();
+        _pool = new StringPool();
     }
 
     /** Return the Table whose name is NAME stored in this database, or null
      *  if there is no such table. */
     public Table get(String name) {
-        for (int i = 0; i < _length; i++) {
-            if (_names.get(i).equals(name)) {
-                return _tables.get(i);
-            }
-        }
-        return null;
+        return _tables.get(name);
     }
 
     /** Set or replace the table named NAME in THIS to TABLE.  TABLE and
-     *  NAME must not be null, and NAME must be a valid name for a table. */
+     *  NAME must not be null, and NAME must be a valid name for a table.
+     *  If logging is on, records the creation of TABLE, giving it the
+     *  home NAME.db (in text format) if it has none, so that it
+     *  survives a crash even if it is never stored. */
     public void put(String name, Table table) {
         if (name == null || table == null) {
             throw new IllegalArgumentException("null argument");
         }
-        for (int i = 0; i < _length; i++) {
-            if (_names.get(i).equals(name)) {
-                _tables.set(i, table);
-                return;
+        Table old = _tables.put(name, table);
+        if (old == table) {
+            return;
+        }
+        if (old != null) {
+            _cache.remove(old);
+            old.materializeViews();
+        }
+        if (_logging && !_homes.containsKey(name)) {
+            setHome(name, false);
+        }
+        TableLog log = _logs.get(name);
+        if (log != null) {
+            log.create(table);
+            checkpointIfNeeded(name);
+        }
+    }
+
+    /** Insert ROWS, each an array of column values, into the table
+     *  named NAME, as for Table.addAll, returning the number of rows
+     *  added.  If that table is logged, records the insertion, to be
+     *  made durable by commit. */
+    public int insert(String name, List<String[]> rows) {
+        Table table = _tables.get(name);
+        for (String[] row : rows) {
+            table.intern(row, _pool);
+        }
+        int added = table.addAll(rows);
+        TableLog log = _logs.get(name);
+        if (log != null && added > 0) {
+            log.insert(rows);
+            checkpointIfNeeded(name);
+        }
+        return added;
+    }
+
+    /** Make all the changes recorded in my logs durable.  Concurrent
+     *  commits are grouped (see TableLog.commit). */
+    public void commit() {
+        ArrayList<TableLog> logs;
+        synchronized (_logs) {
+            logs = new ArrayList<>(_logs.values());
+        }
+        for (TableLog log : logs) {
+            log.commit(log.appended());
+        }
+    }
+
+    /** Read the table named NAME from NAME.db, apply the changes logged
+     *  in NAME.log, if any, add it to me, and return it.  NAME.db
+     *  becomes its home.  NAME.db need not exist if NAME.log records
+     *  the table's creation.  After a replay, the table is written back
+     *  into NAME.db and the log emptied, so that the log does not grow
+     *  from one session to the next. */
+    public Table load(String name) {
+        closeLog(name);
+        boolean replay = TableLog.hasChanges(name);
+        Table table = null;
+        if (!replay || new File(name + ".db").exists()) {
+            table = Table.readTable(name, _pool);
+        }
+        table = TableLog.replay(name, table, _pool);
+        if (table == null) {
+            throw error("corrupted log file %s.log", name);
+        }
+        boolean binary = BinaryFormat.isBinary(name + ".db");
+        _homes.put(name, binary);
+        put(name, table);
+        if (replay) {
+            TableLog.store(table, name, binary);
+        }
+        setHome(name, binary);
+        return table;
+    }
+
+    /** Write my table named NAME into NAME.db, in binary format iff
+     *  BINARY, which becomes its home. */
+    public void store(String name, boolean binary) {
+        TableLog log = _logs.get(name);
+        if (log != null) {
+            log.checkpoint(_tables.get(name), binary);
+        } else {
+            TableLog.store(_tables.get(name), name, binary);
+        }
+        setHome(name, binary);
+    }
+
+    /** Turn logging on iff ON.  Turning it on first stores every table
+     *  with a home into it, so that its log need record only the changes
+     *  made afterwards, and logs the creation of every other table (see
+     *  put); turning it off commits and closes the logs. */
+    public void setLogging(boolean on) {
+        if (on == _logging) {
+            return;
+        }
+        _logging = on;
+        for (Map.Entry<String, Boolean> home : _homes.entrySet()) {
+            String name = home.getKey();
+            if (on) {
+                TableLog.store(_tables.get(name), name, home.getValue());
+                openLog(name, home.getValue());
+            } else {
+                closeLog(name);
             }
         }
-        _names.add(name);
-        _tables.add(table);
-        _length++;
+        if (on) {
+            for (Map.Entry<String, Table> table : _tables.entrySet()) {
+                if (!_homes.containsKey(table.getKey())) {
+                    setHome(table.getKey(), false);
+                    _logs.get(table.getKey()).create(table.getValue());
+                }
+            }
+        }
+    }
+
+    /** Return true iff logging is on. */
+    public boolean isLogging() {
+        return _logging;
+    }
+
+    /** Return the log of my table named NAME, or null if it is not
+     *  logged. */
+    TableLog log(String name) {
+        return _logs.get(name);
+    }
+
+    /** Commit and close all my logs. */
+    public void close() {
+        for (String name : new ArrayList<>(_homes.keySet())) {
+            closeLog(name);
+        }
+    }
+
+    /** Record that the home of my table named NAME is NAME.db, in
+     *  binary format iff BINARY, and start logging its changes if
+     *  logging is on. */
+    private void setHome(String name, boolean binary) {
+        _homes.put(name, binary);
+        if (_logging && !_logs.containsKey(name)) {
+            openLog(name, binary);
+        }
+    }
+
+    /** Start logging the changes to my table named NAME into NAME.log,
+     *  NAME.db being in binary format iff BINARY. */
+    private void openLog(String name, boolean binary) {
+        TableLog log = new TableLog(name, binary);
+        synchronized (_logs) {
+            _logs.put(name, log);
+        }
+    }
+
+    /** Commit and close the log of my table named NAME, if any. */
+    private void closeLog(String name) {
+        TableLog log;
+        synchronized (_logs) {
+            log = _logs.remove(name);
+        }
+        if (log != null) {
+            log.close();
+        }
     }
 
-    /** Stores the list of tables. */
-    private ArrayList<Table> _tables;
-    /** Stores the names of the tables. */
-    private ArrayList<String> _names;
-    /** Stores the length of the table and name arrays. */
-    private int _length;
+    /** Checkpoint the log of my table named NAME, if it is due. */
+    private void checkpointIfNeeded(String name) {
+        TableLog log = _logs.get(name);
+        if (log.needsCheckpoint()) {
+            log.checkpoint(_tables.get(name), log.isBinary());
+        }
+    }
+
+    /** Remove the table named NAME from THIS, returning it, or return
+     *  null if there is no such table. */
+    public Table remove(String name) {
+        Table old = _tables.remove(name);
+        if (old != null) {
+            _cache.remove(old);
+            old.materializeViews();
+            closeLog(name);
+            _homes.remove(name);
+        }
+        return old;
+    }
+
+    /** Return the lock guarding my tables against concurrent
+     *  modification. */
+    ReentrantReadWriteLock lock() {
+        return _lock;
+    }
+
+    /** Return the pool of the string values of my tables. */
+    StringPool pool() {
+        return _pool;
+    }
+
+    /** Return the cache of results of select clauses on my tables. */
+    ResultCache cache() {
+        return _cache;
+    }
+
+    /** Return the names of all my tables, in alphabetical order. */
+    public List<String> names() {
+        ArrayList<String> names = new ArrayList<>(_tables.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /** Initial limit on the size of the results cached, in bytes. */
+    static final long DEFAULT_CACHE_BUDGET = 64L << 20;
+
+    /** Maps table names to tables. */
+    private HashMap<String, Table> _tables;
+    /** Results of select clauses on _tables. */
+    private ResultCache _cache;
+    /** Shared instances of the string values of _tables. */
+    private final StringPool _pool;
+    /** Maps the names of tables with homes to true iff their homes are
+     *  in binary format. */
+    private HashMap<String, Boolean> _homes;
+    /** Maps the names of logged tables to their logs. */
+    private HashMap<String, TableLog> _logs;
+    /** True iff the tables with homes are logged. */
+    private boolean _logging;
+    /** Held for reading by statements that only read my tables, and for
+     *  writing by those that change them. */
+    private final ReentrantReadWriteLock _lock;
 }
@@ -0,0 +1,91 @@
+package db61b;
+
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A ValueList of double-typed values, stored as an array of doubles.
+ *  @author Justin Yang */
+class DoubleValueList extends ValueList {
+
+    /** An empty list. */
+    DoubleValueList() {
+        _values = new double[INITIAL_CAPACITY];
+        _size = 0;
+    }
+
+    @Override
+    String get(int row) {
+        return Double.toString(getDouble(row));
+    }
+
+    @Override
+    void add(String value) {
+        addDouble(ColumnType.parseDouble(value));
+    }
+
+    /** Append VALUE as a new last row, with -0.0 taken as 0.0. */
+    void addDouble(double value) {
+        if (_size == _values.length) {
+            _values = Arrays.copyOf(_values, 2 * _size);
+        }
+        _values[_size] = ColumnType.normalize(value);
+        _size += 1;
+    }
+
+    @Override
+    void removeLast() {
+        _size -= 1;
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    ColumnType getType() {
+        return ColumnType.DOUBLE;
+    }
+
+    @Override
+    double getDouble(int row) {
+        if (row < 0 || row >= _size) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        return _values[row];
+    }
+
+    @Override
+    double[] doubles() {
+        return _values;
+    }
+
+    @Override
+    int compare(int row0, int row1) {
+        return Double.compare(getDouble(row0), getDouble(row1));
+    }
+
+    @Override
+    int compareTo(int row, String value) {
+        return Double.compare(getDouble(row), ColumnType.parseDouble(value));
+    }
+
+    @Override
+    long memoryUsage() {
+        return 2 * HEADER_BYTES + 8L * _values.length;
+    }
+
+    @Override
+    ValueList emptyCopy() {
+        return new DoubleValueList();
+    }
+
+    /** Initial size of _values. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** My values, by row.  Only the first _size are valid. */
+    private double[] _values;
+    /** My number of rows. */
+    private int _size;
+}
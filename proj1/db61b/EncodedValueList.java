@@ -0,0 +1,96 @@
+package db61b;
+
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A ValueList that stores its values as integer codes from a
+ *  StringDictionary, which may be shared with other EncodedValueLists.
+ *  For a column with few distinct values, this takes much less space
+ *  than one String per row, and lets equal values be recognized by
+ *  comparing their codes.
+ *  @author Justin Yang */
+class EncodedValueList extends ValueList {
+
+    /** An empty list whose values are encoded by DICTIONARY. */
+    EncodedValueList(StringDictionary dictionary) {
+        _dictionary = dictionary;
+        _codes = new int[INITIAL_CAPACITY];
+        _size = 0;
+    }
+
+    @Override
+    String get(int row) {
+        return _dictionary.get(getCode(row));
+    }
+
+    @Override
+    void add(String value) {
+        addCode(_dictionary.encode(value));
+    }
+
+    /** Append the value whose code in my dictionary is CODE as a new
+     *  last row. */
+    void addCode(int code) {
+        if (_size == _codes.length) {
+            _codes = Arrays.copyOf(_codes, 2 * _size);
+        }
+        _codes[_size] = code;
+        _size += 1;
+    }
+
+    @Override
+    void removeLast() {
+        _size -= 1;
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    StringDictionary getDictionary() {
+        return _dictionary;
+    }
+
+    @Override
+    int getCode(int row) {
+        if (row < 0 || row >= _size) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        return _codes[row];
+    }
+
+    @Override
+    int[] codes() {
+        return _codes;
+    }
+
+    @Override
+    int compare(int row0, int row1) {
+        return _dictionary.compare(getCode(row0), getCode(row1));
+    }
+
+    @Override
+    long memoryUsage() {
+        return 2 * HEADER_BYTES + 4L * _codes.length
+            + _dictionary.memoryUsage();
+    }
+
+    @Override
+    ValueList emptyCopy() {
+        return new EncodedValueList(_dictionary);
+    }
+
+    /** Initial size of _codes. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Dictionary giving the values of my codes. */
+    private final StringDictionary _dictionary;
+    /** The codes of my values, by row.  Only the first _size are
+     *  valid. */
+    private int[] _codes;
+    /** My number of rows. */
+    private int _size;
+}
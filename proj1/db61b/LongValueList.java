@@ -0,0 +1,104 @@
+package db61b;
+
+import java.util.Arrays;
+
+import static db61b.Utils.*;
+
+/** A ValueList of int-typed values, stored as an array of longs.
+ *  @author Justin Yang */
+class LongValueList extends ValueList {
+
+    /** An empty list. */
+    LongValueList() {
+        _values = new long[INITIAL_CAPACITY];
+        _size = 0;
+    }
+
+    @Override
+    String get(int row) {
+        return Long.toString(getLong(row));
+    }
+
+    @Override
+    void add(String value) {
+        addLong(ColumnType.parseLong(value));
+    }
+
+    /** Append VALUE as a new last row. */
+    void addLong(long value) {
+        if (_size == _values.length) {
+            _values = Arrays.copyOf(_values, 2 * _size);
+        }
+        _values[_size] = value;
+        _size += 1;
+    }
+
+    @Override
+    void removeLast() {
+        _size -= 1;
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    ColumnType getType() {
+        return ColumnType.INT;
+    }
+
+    @Override
+    long getLong(int row) {
+        if (row < 0 || row >= _size) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        return _values[row];
+    }
+
+    @Override
+    long[] longs() {
+        return _values;
+    }
+
+    @Override
+    double getDouble(int row) {
+        return getLong(row);
+    }
+
+    @Override
+    int compare(int row0, int row1) {
+        return Long.compare(getLong(row0), getLong(row1));
+    }
+
+    @Override
+    int compare(int row0, ValueList other, int row1) {
+        if (other.getType() == ColumnType.INT) {
+            return Long.compare(getLong(row0), other.getLong(row1));
+        }
+        return super.compare(row0, other, row1);
+    }
+
+    @Override
+    int compareTo(int row, String value) {
+        return Long.compare(getLong(row), ColumnType.parseLong(value));
+    }
+
+    @Override
+    long memoryUsage() {
+        return 2 * HEADER_BYTES + 8L * _values.length;
+    }
+
+    @Override
+    ValueList emptyCopy() {
+        return new LongValueList();
+    }
+
+    /** Initial size of _values. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** My values, by row.  Only the first _size are valid. */
+    private long[] _values;
+    /** My number of rows. */
+    private int _size;
+}
@@ -1,6 +1,6 @@
 package db61b;
 
-import java.util.Scanner;
+import java.io.InputStreamReader;
 
 /** The main program for db61b.
  *  @author P. N. Hilfinger
@@ -8,7 +8,7 @@ import java.util.Scanner;
 public class Main {
 
     /** Version designation for this program. */
-    private static final String VERSION = "2.0";
+    static final String VERSION = "2.0";
 
     /** Starting with an empty database, read and execute commands from
      *  System.in until receiving a 'quit' ('exit') command or until
@@ -18,9 +18,9 @@ public class Main {
 
         Database db = new Database();
 
-        Scanner input = new Scanner(System.in);
+        InputStreamReader input = new InputStreamReader(System.in);
         CommandInterpreter interpreter =
-            new CommandInterpreter(input, System.out);
+            new CommandInterpreter(input, System.out, System.out, db);
 
         while (true) {
             try {
@@ -32,6 +32,8 @@ public class Main {
                 interpreter.skipCommand();
             }
         }
+        interpreter.close();
+        db.close();
     }
 
 }
@@ -0,0 +1,87 @@
+package db61b;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static db61b.Utils.*;
+
+/** A fork/join task that finds the rows of a single table, within a
+ *  range of row numbers, that satisfy a list of Conditions.  The range
+ *  is split in halves until the pieces are small enough to evaluate
+ *  sequentially (into bitmaps: see Condition.filter), and the results
+ *  of the pieces are concatenated, so that the row numbers come back
+ *  in ascending order.
+ *  @author Justin Yang */
+class ParallelFilter extends RecursiveTask<int[]> {
+
+    /** Tables with fewer rows than this are not worth filtering in
+     *  parallel. */
+    static final int MIN_ROWS = 1 << 14;
+
+    /** Return the numbers, in ascending order, of all rows 0 .. SIZE-1
+     *  of a table that satisfy CONDITIONS, testing them on the threads
+     *  of POOL. */
+    static int[] filter(ForkJoinPool pool, List<Condition> conditions,
+                        int size) {
+        int grain = Math.max(MIN_GRAIN, size / (4 * pool.getParallelism()));
+        return pool.invoke(new ParallelFilter(conditions, 0, size, grain));
+    }
+
+    /** A task that tests rows LOW .. HIGH-1 against CONDITIONS,
+     *  testing pieces of at most GRAIN rows sequentially. */
+    private ParallelFilter(List<Condition> conditions, int low, int high,
+                           int grain) {
+        _conditions = conditions;
+        _low = low;
+        _high = high;
+        _grain = grain;
+    }
+
+    @Override
+    protected int[] compute() {
+        if (_high - _low <= _grain) {
+            long[] bits = new long[words(_high - _low)];
+            setAll(bits, _high - _low);
+            Condition.filter(_conditions, bits, _low, _high);
+            int n = 0;
+            for (long word : bits) {
+                n += Long.bitCount(word);
+            }
+            int[] result = new int[n];
+            n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    result[n] = _low + (w << 6)
+                        + Long.numberOfTrailingZeros(word);
+                    n += 1;
+                }
+            }
+            return result;
+        }
+        int mid = (_low + _high) >>> 1;
+        ParallelFilter left =
+            new ParallelFilter(_conditions, _low, mid, _grain);
+        ParallelFilter right =
+            new ParallelFilter(_conditions, mid, _high, _grain);
+        left.fork();
+        int[] rightRows = right.compute();
+        int[] leftRows = left.join();
+        int[] rows = Arrays.copyOf(leftRows,
+                                   leftRows.length + rightRows.length);
+        System.arraycopy(rightRows, 0, rows, leftRows.length,
+                         rightRows.length);
+        return rows;
+    }
+
+    /** Smallest number of rows tested sequentially by one task. */
+    static final int MIN_GRAIN = 1 << 12;
+
+    /** The conditions to test. */
+    private final List<Condition> _conditions;
+    /** The range of rows to test is _low .. _high-1. */
+    private final int _low, _high;
+    /** The largest range tested without further splitting. */
+    private final int _grain;
+}
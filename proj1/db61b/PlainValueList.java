@@ -0,0 +1,48 @@
+package db61b;
+
+import java.util.ArrayList;
+
+import static db61b.Utils.*;
+
+/** A ValueList that stores each value as a separate String.
+ *  @author Justin Yang */
+class PlainValueList extends ValueList {
+
+    @Override
+    String get(int row) {
+        return _values.get(row);
+    }
+
+    @Override
+    void add(String value) {
+        _values.add(value);
+    }
+
+    @Override
+    void removeLast() {
+        _values.remove(_values.size() - 1);
+    }
+
+    @Override
+    int size() {
+        return _values.size();
+    }
+
+    @Override
+    long memoryUsage() {
+        long total = HEADER_BYTES + LIST_BYTES + HEADER_BYTES
+            + (long) REFERENCE_BYTES * _values.size();
+        for (String value : _values) {
+            total += stringBytes(value);
+        }
+        return total;
+    }
+
+    @Override
+    ValueList emptyCopy() {
+        return new PlainValueList();
+    }
+
+    /** My values, by row. */
+    private final ArrayList<String> _values = new ArrayList<>();
+}
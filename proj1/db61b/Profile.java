@@ -0,0 +1,205 @@
+package db61b;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/** A description of one operator in the plan of a select clause (a
+ *  RowSource, or the sorting, projection, or aggregation of the rows it
+ *  delivers), with statistics on its execution, and those of its
+ *  inputs, forming a tree.  The rows each operator scans (reads or
+ *  tests) and emits are always counted.  When timing is enabled (see
+ *  setTimed), the wall-clock time each operator takes, and the number
+ *  of bytes the thread running it allocates meanwhile, are measured
+ *  too.  Both include the work of its inputs, which is subtracted out
+ *  when reporting.  Work done on other threads (as when filtering in
+ *  parallel) counts toward time, but not toward allocation.
+ *  @author Justin Yang */
+class Profile {
+
+    /** A profile of the operation described by OPERATION (such as
+     *  "scan") and DETAILS (such as " where A = '1'", or ""), whose
+     *  inputs are described by INPUTS. */
+    Profile(String operation, String details, Profile... inputs) {
+        _operation = operation;
+        _details = details;
+        _inputs = inputs;
+        _estimate = -1;
+    }
+
+    /** Return " where " followed by CONDITIONS, separated by " and ", or
+     *  "" if there are none, for use as details. */
+    static String where(List<Condition> conditions) {
+        if (conditions.isEmpty()) {
+            return "";
+        }
+        StringBuilder result = new StringBuilder(" where ");
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0) {
+                result.append(" and ");
+            }
+            result.append(conditions.get(i));
+        }
+        return result.toString();
+    }
+
+    /** Record that my operation reads the table named NAME. */
+    void setTable(String name) {
+        _table = name;
+    }
+
+    /** Record that my operation is estimated to emit ROWS rows. */
+    void setEstimate(double rows) {
+        _estimate = rows;
+    }
+
+    /** Enable timing of me and my inputs iff TIMED. */
+    void setTimed(boolean timed) {
+        _timed = timed;
+        for (Profile input : _inputs) {
+            input.setTimed(timed);
+        }
+    }
+
+    /** Return true iff timing is enabled. */
+    boolean isTimed() {
+        return _timed;
+    }
+
+    /** Record the start of a period of work, if timing is enabled. */
+    void start() {
+        if (_timed) {
+            _startBytes = allocatedBytes();
+            _startTime = System.nanoTime();
+        }
+    }
+
+    /** Record the end of a period of work started by start(), if timing
+     *  is enabled. */
+    void stop() {
+        if (_timed) {
+            _nanos += System.nanoTime() - _startTime;
+            _bytes += allocatedBytes() - _startBytes;
+        }
+    }
+
+    /** Record that N more rows have been scanned. */
+    void scanned(long n) {
+        _scanned += n;
+    }
+
+    /** Record that N more rows have been emitted. */
+    void emitted(long n) {
+        _emitted += n;
+    }
+
+    /** Return the number of rows scanned so far. */
+    long scannedRows() {
+        return _scanned;
+    }
+
+    /** Return the number of rows emitted so far. */
+    long emittedRows() {
+        return _emitted;
+    }
+
+    /** Return a description of me and my inputs, one operator per line,
+     *  each indented by two spaces more than the operator whose input it
+     *  is. */
+    String explain() {
+        StringBuilder result = new StringBuilder();
+        explain(result, "  ");
+        return result.toString();
+    }
+
+    /** Append my description, and those of my inputs, to RESULT, each
+     *  on its own line, indenting mine by INDENT. */
+    private void explain(StringBuilder result, String indent) {
+        result.append(indent).append(this);
+        if (_estimate >= 0) {
+            result.append(String.format(" (estimated rows: %.0f)",
+                                        _estimate));
+        }
+        result.append("\n");
+        for (Profile input : _inputs) {
+            input.explain(result, indent + "  ");
+        }
+    }
+
+    /** Return a table of the statistics of me and my inputs, with a
+     *  header line followed by one line per operator, showing the time
+     *  (in milliseconds) and bytes allocated by that operator alone,
+     *  followed by its description, indented as for explain(). */
+    String report() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format(REPORT_HEADER, "ms", "scanned",
+                                    "emitted", "bytes", "operator"));
+        report(result, "");
+        return result.toString();
+    }
+
+    /** Append my line of statistics, and those of my inputs, to RESULT,
+     *  indenting my description by INDENT. */
+    private void report(StringBuilder result, String indent) {
+        long nanos, bytes;
+        nanos = _nanos;
+        bytes = _bytes;
+        for (Profile input : _inputs) {
+            nanos -= input._nanos;
+            bytes -= input._bytes;
+        }
+        result.append(String.format(REPORT_FORMAT, Math.max(0, nanos) / 1e6,
+                                    _scanned, _emitted, Math.max(0, bytes),
+                                    indent + this));
+        for (Profile input : _inputs) {
+            input.report(result, indent + "  ");
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (_table == null) {
+            return _operation + _details;
+        }
+        return _operation + " " + _table + _details;
+    }
+
+    /** Return the number of bytes allocated by the current thread so
+     *  far, or 0 if that is not available. */
+    static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS)
+                .getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /** Source of per-thread allocation counts. */
+    private static final ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** Format of the header of report(). */
+    private static final String REPORT_HEADER = "  %9s %9s %9s %11s  %s%n";
+    /** Format of the other lines of report(). */
+    private static final String REPORT_FORMAT = "  %9.3f %9d %9d %11d  %s%n";
+
+    /** The name of my operation. */
+    private final String _operation;
+    /** Further description of my operation. */
+    private final String _details;
+    /** Name of the table my operation reads, or null if none. */
+    private String _table;
+    /** The profiles of my inputs. */
+    private final Profile[] _inputs;
+    /** Estimated number of rows emitted, or -1 if unknown. */
+    private double _estimate;
+    /** True iff timing is enabled. */
+    private boolean _timed;
+    /** Time and allocation count at the last start(). */
+    private long _startTime, _startBytes;
+    /** Total time (in nanoseconds) and bytes allocated between calls of
+     *  start() and stop(). */
+    private long _nanos, _bytes;
+    /** Numbers of rows scanned and emitted. */
+    private long _scanned, _emitted;
+}
@@ -0,0 +1,571 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static db61b.Utils.*;
+
+/** Plans and executes the selection part of a select clause: given the
+ *  tables in its from list and the Conditions in its where clause,
+ *  produces a pipeline of RowSources delivering the selected rows.  For
+ *  a join, conditions that refer to only one of the tables are applied
+ *  to that table as it is read ("predicate pushdown"), so that the join
+ *  sees only rows that can contribute to the result, and each condition
+ *  that relates several tables is evaluated as soon as they have all
+ *  been joined.
+ *
+ *  The tables are joined one at a time, each to the result of joining
+ *  those before it (a "left-deep" plan), by hashing when they have
+ *  columns in common and by nested loops otherwise.  The first two
+ *  tables are instead merged, as they are read in order, when their
+ *  common columns are the leading columns of each (by which their rows
+ *  are sorted), since that needs neither hashing nor the repeated
+ *  reading of either.  The order of the
+ *  tables, and the choice of join at each step, are those with the
+ *  least estimated cost, as found from the sizes of the tables and the
+ *  numbers of distinct values in their columns (see
+ *  Table.distinctValues), in the usual way: a condition comparing a
+ *  column to a literal for equality is taken to select 1 out of every
+ *  D rows, where D is the number of distinct values in the column; a
+ *  join on a common column to produce 1 out of every D pairs of rows,
+ *  where D is the greater number of distinct values on either side;
+ *  and any other comparison to select a third of its rows.
+ *  @author Justin Yang */
+class QueryPlanner {
+
+    /** A planner for a select clause that selects from TABLES (one or
+     *  more of them), with CONDITIONS as its where clause.  The columns
+     *  of CONDITIONS must have been selected from TABLES, in order.
+     *  Throws a DBException if TABLES have a column in common that is
+     *  int-typed in one and double-typed in another, since the values
+     *  of such columns could never be matched. */
+    QueryPlanner(List<Condition> conditions, Table... tables) {
+        if (tables.length < 1) {
+            throw error("must select from at least one table");
+        }
+        _tables = tables;
+        checkCommonTypes();
+        _local = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            _local.add(new ArrayList<Condition>());
+        }
+        _cross = new ArrayList<>();
+        for (Condition cond : conditions) {
+            classify(cond);
+        }
+    }
+
+    /** Use NAMES, one for each of my tables, to describe my plan. */
+    void setNames(String... names) {
+        _names = names;
+    }
+
+    /** Use POOL, if it is not null, to filter tables in parallel. */
+    void setPool(ForkJoinPool pool) {
+        _pool = pool;
+    }
+
+    /** Return the Selection containing the columns named COLUMNNAMES
+     *  from the rows selected by my tables and conditions.  When
+     *  selecting from one table, and COLUMNNAMES are its first columns
+     *  in order, the table is read in order (unless an index applies),
+     *  so that the result is produced in order too. */
+    Selection select(List<String> columnNames) {
+        if (_tables.length == 1) {
+            Table table = _tables[0];
+            List<Condition> conditions = _local.get(0);
+            if (isPrefix(columnNames, table)
+                && !table.hasIndexFor(conditions)) {
+                return new Selection(columnNames, _tables, orderedScan(0),
+                                     true);
+            }
+        }
+        return new Selection(columnNames, _tables, rows(), false);
+    }
+
+    /** Return the Selection containing the values of AGGREGATION over
+     *  the rows selected by my tables and conditions, which are
+     *  aggregated when the Selection's rows are first needed.  When
+     *  selecting from one large table that must be scanned, and I have
+     *  a pool, the rows are aggregated in parallel. */
+    Selection aggregate(Aggregation aggregation) {
+        if (_tables.length == 1) {
+            Table table = _tables[0];
+            List<Condition> conditions = _local.get(0);
+            if (_pool != null && table.size() >= ParallelFilter.MIN_ROWS
+                && !table.hasIndexFor(conditions)) {
+                Profile profile =
+                    new Profile("parallel aggregate", " " + aggregation
+                                + Profile.where(conditions));
+                label(profile, 0);
+                return new Selection(aggregation.titles(), () -> {
+                    profile.start();
+                    Table result =
+                        aggregation.aggregate(_pool, conditions,
+                                              table.size());
+                    profile.stop();
+                    profile.scanned(table.size());
+                    profile.emitted(result.size());
+                    return result;
+                }, profile);
+            }
+        }
+        RowSource rows = rows();
+        Profile profile =
+            new Profile("aggregate", " " + aggregation, rows.profile());
+        return new Selection(aggregation.titles(), () -> {
+            profile.start();
+            Table result = aggregation.aggregate(rows);
+            profile.stop();
+            profile.scanned(rows.profile().emittedRows());
+            profile.emitted(result.size());
+            return result;
+        }, profile);
+    }
+
+    /** Return a source of the rows selected by my tables and
+     *  conditions, in no particular order. */
+    private RowSource rows() {
+        if (_tables.length == 1) {
+            return scan(0);
+        }
+        _filteredRows = new double[_tables.length];
+        for (int i = 0; i < _tables.length; i++) {
+            _filteredRows[i] = _tables[i].size();
+            for (Condition cond : _local.get(i)) {
+                _filteredRows[i] *= selectivity(cond);
+            }
+        }
+        return join(joinOrder());
+    }
+
+    /** Return the pipeline that joins my tables in the order given by
+     *  ORDER, a permutation of their indices. */
+    private RowSource join(int[] order) {
+        int n = _tables.length;
+        boolean[] joined = new boolean[n];
+        int first = order[0];
+        RowSource rows = scan(first);
+        joined[first] = true;
+        double leftRows = _filteredRows[first];
+        ArrayList<Condition> pending = new ArrayList<>(_cross);
+
+        for (int i = 1; i < n; i++) {
+            int t = order[i];
+            Step step = step(joined, t, leftRows);
+            Table[] left = joinedTables(joined), right = new Table[n];
+            right[t] = _tables[t];
+            joined[t] = true;
+            Table[] all = joinedTables(joined);
+
+            ArrayList<Condition> conditions = new ArrayList<>();
+            for (int k = pending.size() - 1; k >= 0; k--) {
+                if (covers(all, pending.get(k))) {
+                    conditions.add(pending.remove(k).bind(all));
+                }
+            }
+            ArrayList<Column> probeKey = new ArrayList<>(),
+                buildKey = new ArrayList<>();
+            for (String title : commonTitles(left, t)) {
+                probeKey.add(new Column(title, left));
+                buildKey.add(new Column(title, right));
+            }
+
+            switch (step._method) {
+            case MERGE:
+                /* Only the first two tables are merged, so ROWS is the
+                 * (as yet unread) scan of the first, which is replaced by
+                 * an ordered one. */
+                rows = RowSource.mergeJoin(orderedScan(first), _tables[first],
+                                           first, orderedScan(t), _tables[t],
+                                           t, probeKey.size(), conditions,
+                                           n);
+                break;
+            case HASH:
+                rows = RowSource.hashJoin(rows, probeKey, scan(t), buildKey,
+                                          t, conditions, n);
+                break;
+            default:
+                for (int k = 0; k < probeKey.size(); k++) {
+                    conditions.add(new Condition(probeKey.get(k), "=",
+                                                 buildKey.get(k)));
+                }
+                rows = RowSource.nestedLoop(rows, scan(t), t, conditions, n);
+                break;
+            }
+            rows.profile().setEstimate(step._rows);
+            leftRows = step._rows;
+        }
+        return rows;
+    }
+
+    /** Return a source of the rows of my table #K that satisfy the
+     *  conditions on it alone. */
+    private RowSource scan(int k) {
+        RowSource rows = _tables[k].rows(_local.get(k), _pool, k);
+        label(rows.profile(), k);
+        return rows;
+    }
+
+    /** Return a source of the rows of my table #K that satisfy the
+     *  conditions on it alone, in ascending order. */
+    private RowSource orderedScan(int k) {
+        RowSource rows = _tables[k].orderedRows(_local.get(k), k);
+        label(rows.profile(), k);
+        return rows;
+    }
+
+    /** Record in PROFILE, which describes an operation on my table #K
+     *  alone, the name of that table and, when known, the estimated
+     *  number of its rows selected. */
+    private void label(Profile profile, int k) {
+        if (_names != null) {
+            profile.setTable(_names[k]);
+        }
+        if (_filteredRows != null) {
+            profile.setEstimate(_filteredRows[k]);
+        }
+    }
+
+    /** Return the order in which to join my tables that has the least
+     *  estimated cost, as a permutation of their indices.  Considers
+     *  all orders, unless there are more than MAX_EXHAUSTIVE tables, in
+     *  which case the tables are added one at a time, choosing the
+     *  cheapest to add at each step. */
+    private int[] joinOrder() {
+        int n = _tables.length;
+        if (n > MAX_EXHAUSTIVE) {
+            return greedyOrder();
+        }
+        int sets = 1 << n;
+        double[] cost = new double[sets], rows = new double[sets];
+        int[] last = new int[sets];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+        for (int t = 0; t < n; t++) {
+            cost[1 << t] = 0.0;
+            rows[1 << t] = _filteredRows[t];
+            last[1 << t] = t;
+        }
+        boolean[] joined = new boolean[n];
+        for (int set = 1; set < sets; set++) {
+            if (cost[set] == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            for (int t = 0; t < n; t++) {
+                joined[t] = (set & (1 << t)) != 0;
+            }
+            for (int t = 0; t < n; t++) {
+                if (joined[t]) {
+                    continue;
+                }
+                Step step = step(joined, t, rows[set]);
+                int next = set | (1 << t);
+                if (cost[set] + step._cost < cost[next]) {
+                    cost[next] = cost[set] + step._cost;
+                    rows[next] = step._rows;
+                    last[next] = t;
+                }
+            }
+        }
+
+        int[] order = new int[n];
+        int set = sets - 1;
+        for (int i = n - 1; i >= 0; i--) {
+            order[i] = last[set];
+            set &= ~(1 << order[i]);
+        }
+        return order;
+    }
+
+    /** Return a join order for my tables, starting with the one with
+     *  fewest estimated rows, and adding at each step the table that is
+     *  cheapest to join to those before it. */
+    private int[] greedyOrder() {
+        int n = _tables.length;
+        int[] order = new int[n];
+        boolean[] joined = new boolean[n];
+        for (int t = 1; t < n; t++) {
+            if (_filteredRows[t] < _filteredRows[order[0]]) {
+                order[0] = t;
+            }
+        }
+        joined[order[0]] = true;
+        double rows = _filteredRows[order[0]];
+        for (int i = 1; i < n; i++) {
+            Step best = null;
+            for (int t = 0; t < n; t++) {
+                if (!joined[t]) {
+                    Step step = step(joined, t, rows);
+                    if (best == null || step._cost < best._cost) {
+                        best = step;
+                        order[i] = t;
+                    }
+                }
+            }
+            joined[order[i]] = true;
+            rows = best._rows;
+        }
+        return order;
+    }
+
+    /** Return the estimated outcome of joining table #T to the result,
+     *  of LEFTROWS rows, of joining the tables #k such that JOINED[k].
+     *  Leaves JOINED unchanged. */
+    private Step step(boolean[] joined, int t, double leftRows) {
+        double rightRows = _filteredRows[t];
+        double rows = leftRows * rightRows;
+        Table table = _tables[t];
+        boolean keyed = false;
+        for (int c = 0; c < table.columns(); c++) {
+            String title = table.getTitle(c);
+            for (int k = 0; k < joined.length; k++) {
+                if (joined[k] && _tables[k].findColumn(title) != -1) {
+                    rows /= Math.max(distinctValues(k, title),
+                                     distinctValues(t, title));
+                    keyed = true;
+                    break;
+                }
+            }
+        }
+        Table[] before = joinedTables(joined);
+        joined[t] = true;
+        Table[] after = joinedTables(joined);
+        joined[t] = false;
+        for (Condition cond : _cross) {
+            if (covers(after, cond) && !covers(before, cond)) {
+                rows *= selectivity(cond);
+            }
+        }
+
+        double loop = rightRows + leftRows * rightRows,
+            hash = HASH_COST * (leftRows + rightRows) + rightRows,
+            merge = leftRows + rightRows;
+        int first, count;
+        first = count = 0;
+        for (int k = 0; k < joined.length; k++) {
+            if (joined[k]) {
+                first = k;
+                count += 1;
+            }
+        }
+        if (count == 1 && mergeable(first, t)) {
+            return new Step(rows, merge + rows, Method.MERGE);
+        }
+        if (keyed && hash < loop) {
+            return new Step(rows, hash + rows, Method.HASH);
+        }
+        return new Step(rows, loop + rows, Method.LOOP);
+    }
+
+    /** Return true iff my tables #K and #T can be joined by merging
+     *  their rows in order: that is, iff the columns they have in common
+     *  are, in the same order and with the same types, the leading
+     *  columns of both, and no index applies to either (so that reading
+     *  them in order costs no more than reading them otherwise). */
+    private boolean mergeable(int k, int t) {
+        Table left = _tables[k], right = _tables[t];
+        Table[] single = { left };
+        List<String> common = commonTitles(single, t);
+        if (common.isEmpty()) {
+            return false;
+        }
+        for (int c = 0; c < common.size(); c++) {
+            if (!common.get(c).equals(left.getTitle(c))
+                || !common.get(c).equals(right.getTitle(c))
+                || left.getType(c) != right.getType(c)) {
+                return false;
+            }
+        }
+        return !left.hasIndexFor(_local.get(k))
+            && !right.hasIndexFor(_local.get(t));
+    }
+
+    /** Return the estimated fraction of rows that satisfy COND. */
+    private double selectivity(Condition cond) {
+        Column col1 = cond.getColumn1(), col2 = cond.getColumn2();
+        double distinct = distinctValues(col1);
+        if (col2 != null) {
+            distinct = Math.max(distinct, distinctValues(col2));
+        }
+        switch (cond.getRelation()) {
+        case "=":
+            return 1.0 / distinct;
+        case "!=":
+            return 1.0 - 1.0 / distinct;
+        default:
+            return 1.0 / 3.0;
+        }
+    }
+
+    /** Return the number of distinct values in COLUMN, at least 1. */
+    private static double distinctValues(Column column) {
+        return Math.max(1, column.getTable()
+                        .distinctValues(column.getColumn()));
+    }
+
+    /** Return the estimated number of distinct values in the column
+     *  named TITLE of my table #K, once filtered: at least 1, and no
+     *  more than its estimated number of rows. */
+    private double distinctValues(int k, String title) {
+        Table table = _tables[k];
+        double distinct = table.distinctValues(table.findColumn(title));
+        return Math.max(1.0, Math.min(distinct, _filteredRows[k]));
+    }
+
+    /** Throw a DBException if a column of one of my tables is int-typed
+     *  and the column of the same title in another is double-typed. */
+    private void checkCommonTypes() {
+        for (int t = 1; t < _tables.length; t++) {
+            for (int c = 0; c < _tables[t].columns(); c++) {
+                String title = _tables[t].getTitle(c);
+                ColumnType type = _tables[t].getType(c);
+                for (int k = 0; k < t; k++) {
+                    int other = _tables[k].findColumn(title);
+                    if (other != -1 && type.isNumeric()
+                        && _tables[k].getType(other).isNumeric()
+                        && _tables[k].getType(other) != type) {
+                        throw error("cannot join int and double columns"
+                                    + " named %s", title);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return the titles of the columns of my table #T that also appear
+     *  in one of the non-null elements of TABLES. */
+    private List<String> commonTitles(Table[] tables, int t) {
+        ArrayList<String> titles = new ArrayList<>();
+        Table table = _tables[t];
+        for (int c = 0; c < table.columns(); c++) {
+            for (Table other : tables) {
+                if (other != null
+                    && other.findColumn(table.getTitle(c)) != -1) {
+                    titles.add(table.getTitle(c));
+                    break;
+                }
+            }
+        }
+        return titles;
+    }
+
+    /** Return a copy of my tables in which those #k such that
+     *  !JOINED[k] are replaced by null, for selecting columns from
+     *  only the joined tables (see Column). */
+    private Table[] joinedTables(boolean[] joined) {
+        Table[] tables = new Table[_tables.length];
+        for (int k = 0; k < tables.length; k++) {
+            if (joined[k]) {
+                tables[k] = _tables[k];
+            }
+        }
+        return tables;
+    }
+
+    /** Return true iff each column to which COND refers appears in one
+     *  of the non-null elements of TABLES. */
+    private static boolean covers(Table[] tables, Condition cond) {
+        return appears(tables, cond.getColumn1().getName())
+            && (cond.getColumn2() == null
+                || appears(tables, cond.getColumn2().getName()));
+    }
+
+    /** Return true iff one of the non-null elements of TABLES has a
+     *  column named TITLE. */
+    private static boolean appears(Table[] tables, String title) {
+        for (Table table : tables) {
+            if (table != null && table.findColumn(title) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff COLUMNNAMES are the titles of the first columns
+     *  of TABLE, in order. */
+    private static boolean isPrefix(List<String> columnNames, Table table) {
+        if (columnNames.size() > table.columns()) {
+            return false;
+        }
+        for (int c = 0; c < columnNames.size(); c++) {
+            if (!columnNames.get(c).equals(table.getTitle(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add COND to the lists of conditions for the tables it refers to,
+     *  or to _cross if it refers to several tables.  A condition is
+     *  applied to every table having all the columns it refers to,
+     *  since a join only pairs rows that agree on such columns. */
+    private void classify(Condition cond) {
+        boolean local = false;
+        for (int i = 0; i < _tables.length; i++) {
+            Table[] single = { _tables[i] };
+            if (covers(single, cond)) {
+                _local.get(i).add(cond.bind(_tables[i]));
+                local = true;
+            }
+        }
+        if (!local) {
+            _cross.add(cond);
+        }
+    }
+
+    /** The ways of performing one step of a join. */
+    private enum Method {
+        /** Pairing each row of the left with each of the right. */
+        LOOP,
+        /** Looking up each row of the left in a hash table of the
+         *  right. */
+        HASH,
+        /** Merging the rows of two tables in order. */
+        MERGE
+    }
+
+    /** The estimated outcome of one step of a join. */
+    private static class Step {
+        /** A step producing ROWS rows at a total cost of COST, using
+         *  METHOD. */
+        Step(double rows, double cost, Method method) {
+            _rows = rows;
+            _cost = cost;
+            _method = method;
+        }
+
+        /** Estimated number of rows produced. */
+        private final double _rows;
+        /** Estimated cost, in units of one comparison of rows. */
+        private final double _cost;
+        /** How this step is performed. */
+        private final Method _method;
+    }
+
+    /** Estimated cost of hashing one row, in units of one comparison of
+     *  rows. */
+    private static final double HASH_COST = 4.0;
+    /** Largest number of tables for which all join orders are
+     *  considered. */
+    private static final int MAX_EXHAUSTIVE = 10;
+
+    /** The tables being selected from. */
+    private final Table[] _tables;
+    /** _local.get(k) contains the conditions on _tables[k] alone,
+     *  selected from _tables[k]. */
+    private final ArrayList<ArrayList<Condition>> _local;
+    /** The conditions that relate columns of different tables. */
+    private final ArrayList<Condition> _cross;
+    /** _filteredRows[k] is the estimated number of rows of _tables[k]
+     *  that satisfy the conditions on it alone.  Computed only when
+     *  planning a join. */
+    private double[] _filteredRows;
+    /** Pool used for parallel filtering, or null if filtering is to be
+     *  sequential. */
+    private ForkJoinPool _pool;
+    /** _names[k] is the name of _tables[k], or _names is null if the
+     *  names are unknown. */
+    private String[] _names;
+}
@@ -0,0 +1,176 @@
+package db61b;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/** A cache of the results of select clauses, so that a clause repeated
+ *  while the tables it selects from are unchanged need not be evaluated
+ *  again.  Results are keyed by the text of the clause, normalized as a
+ *  sequence of tokens (so that spacing and comments do not matter),
+ *  and are valid only as long as the tables the clause named are the
+ *  same Tables (as opposed to others since given the same names) at
+ *  the same versions (see Table.version).  The results held occupy
+ *  (approximately, according to Table.memoryUsage) no more than a
+ *  given budget of bytes; when a new result would exceed it, the least
+ *  recently used results are discarded.  A cache may be shared by
+ *  concurrent sessions, and so is synchronized.
+ *  @author Justin Yang */
+class ResultCache {
+
+    /** An empty cache holding results of no more than BUDGET bytes in
+     *  all. */
+    ResultCache(long budget) {
+        _entries = new LinkedHashMap<>(16, 0.75f, true);
+        _budget = budget;
+    }
+
+    /** Return the result cached for the select clause whose normalized
+     *  text is TEXT, selecting from TABLES, or null if there is none
+     *  (or if any of TABLES has changed since it was cached).  The
+     *  result must not be modified. */
+    synchronized Table get(String text, Table[] tables) {
+        Entry entry = _entries.get(text);
+        if (entry == null) {
+            return null;
+        } else if (!entry.isValidFor(tables)) {
+            discard(text);
+            return null;
+        }
+        return entry._result;
+    }
+
+    /** Cache RESULT, which must not be modified afterwards, as the
+     *  result of the select clause whose normalized text is TEXT,
+     *  selecting from TABLES in their current versions.  Discards the
+     *  least recently used results as needed to stay within my budget,
+     *  and does nothing if RESULT alone would exceed it. */
+    synchronized void put(String text, Table[] tables, Table result) {
+        discard(text);
+        Entry entry = new Entry(tables, result, text.length());
+        if (entry._bytes > _budget) {
+            return;
+        }
+        _entries.put(text, entry);
+        _bytes += entry._bytes;
+        trim();
+    }
+
+    /** Discard all results selected from TABLE, which has been dropped
+     *  or replaced. */
+    synchronized void remove(Table table) {
+        Iterator<Entry> entries = _entries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.uses(table)) {
+                _bytes -= entry._bytes;
+                entries.remove();
+            }
+        }
+    }
+
+    /** Limit the space occupied by my results to BUDGET bytes,
+     *  discarding results if necessary.  A budget of 0 disables
+     *  caching. */
+    synchronized void setBudget(long budget) {
+        _budget = budget;
+        trim();
+    }
+
+    /** Return my budget, in bytes. */
+    synchronized long budget() {
+        return _budget;
+    }
+
+    /** Return true iff my budget allows any results to be cached. */
+    synchronized boolean isEnabled() {
+        return _budget > 0;
+    }
+
+    /** Return the number of results I hold. */
+    synchronized int size() {
+        return _entries.size();
+    }
+
+    /** Return the approximate number of bytes occupied by my results. */
+    synchronized long memoryUsage() {
+        return _bytes;
+    }
+
+    /** Discard least recently used results until I am within my
+     *  budget. */
+    private void trim() {
+        Iterator<Entry> entries = _entries.values().iterator();
+        while (_bytes > _budget && entries.hasNext()) {
+            _bytes -= entries.next()._bytes;
+            entries.remove();
+        }
+    }
+
+    /** Discard the result cached for TEXT, if any. */
+    private void discard(String text) {
+        Entry entry = _entries.remove(text);
+        if (entry != null) {
+            _bytes -= entry._bytes;
+        }
+    }
+
+    /** A cached result, with the tables from which it was selected. */
+    private static class Entry {
+        /** RESULT, selected from TABLES in their current versions by a
+         *  clause whose text has KEYLENGTH characters. */
+        Entry(Table[] tables, Table result, int keyLength) {
+            _tables = tables.clone();
+            _versions = new long[tables.length];
+            for (int i = 0; i < tables.length; i++) {
+                _versions[i] = tables[i].version();
+            }
+            _result = result;
+            _bytes = result.memoryUsage() + ENTRY_BYTES + 2L * keyLength;
+        }
+
+        /** Return true iff TABLES are my tables, in their versions at
+         *  the time I was created. */
+        boolean isValidFor(Table[] tables) {
+            if (tables.length != _tables.length) {
+                return false;
+            }
+            for (int i = 0; i < tables.length; i++) {
+                if (tables[i] != _tables[i]
+                    || tables[i].version() != _versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Return true iff TABLE is one of my tables. */
+        boolean uses(Table table) {
+            for (Table t : _tables) {
+                if (t == table) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The tables selected from. */
+        private final Table[] _tables;
+        /** _versions[i] is the version of _tables[i] when selected. */
+        private final long[] _versions;
+        /** The result. */
+        private final Table _result;
+        /** Approximate size of this entry, in bytes. */
+        private final long _bytes;
+    }
+
+    /** Approximate overhead of an entry, including its key, in bytes. */
+    private static final int ENTRY_BYTES = 128;
+
+    /** Maps the normalized texts of select clauses to their results, in
+     *  order from least to most recently used. */
+    private final LinkedHashMap<String, Entry> _entries;
+    /** Maximum total size of my entries, in bytes. */
+    private long _budget;
+    /** Total size of my entries, in bytes. */
+    private long _bytes;
+}
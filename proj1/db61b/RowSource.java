@@ -0,0 +1,563 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static db61b.Utils.*;
+
+/** A stage in the pipeline that evaluates a select clause, delivering
+ *  the rows it selects one at a time, on demand.  Each row is denoted
+ *  by an array of row numbers, one for each table in the clause's from
+ *  list, in the order of that list (as expected by Column.getFrom and
+ *  Condition.test).  A stage that reads one table fills in only that
+ *  table's element; a join fills in those of all the tables it joins.
+ *  Stages are consumed once.  Each records the rows it scans and emits
+ *  (and, if timing is enabled, the time it takes) in a Profile, for
+ *  "explain" and "set timing on".
+ *  @author Justin Yang */
+abstract class RowSource {
+
+    /** A stage whose execution is recorded in PROFILE. */
+    RowSource(Profile profile) {
+        _profile = profile;
+    }
+
+    /** Store the row numbers of my next row into the appropriate
+     *  elements of ROWS, leaving the others unchanged, and return true.
+     *  Return false if there are no more rows. */
+    final boolean next(int[] rows) {
+        _profile.start();
+        boolean found = advance(rows);
+        _profile.stop();
+        if (found) {
+            _profile.emitted(1);
+        }
+        return found;
+    }
+
+    /** Return the record of my execution, whose inputs are the records
+     *  of my inputs. */
+    Profile profile() {
+        return _profile;
+    }
+
+    /** Perform next(ROWS), without recording it in my profile. */
+    abstract boolean advance(int[] rows);
+
+    /** Return a source of the rows 0 .. SIZE-1 of a table that satisfy
+     *  CONDITIONS (which refer to that table alone), storing each
+     *  into element SLOT. */
+    static RowSource scan(int size, List<Condition> conditions, int slot) {
+        return new Scan("scan", null, size, conditions, conditions, slot);
+    }
+
+    /** Return a source of the rows 0 .. SIZE-1 of a table that are in
+     *  the bitmap MARKS (see Utils), which holds the rows satisfying
+     *  those of CONDITIONS (which refer to that table alone) found
+     *  through indexes, and satisfy the rest, OTHERS, storing each into
+     *  element SLOT. */
+    static RowSource bitmap(long[] marks, int size,
+                            List<Condition> conditions,
+                            List<Condition> others, int slot) {
+        return new Scan("bitmap index scan", marks, size, conditions,
+                        others, slot);
+    }
+
+    /** Return a source of the row numbers in ROWS that satisfy
+     *  CONDITIONS (which refer to a single table), in order, storing
+     *  each into element SLOT.  OPERATION describes how ROWS were
+     *  found (as "index scan"). */
+    static RowSource of(String operation, Iterable<Integer> rows,
+                        List<Condition> conditions, int slot) {
+        return new Listed(operation, rows, conditions, slot);
+    }
+
+    /** Return a source of the rows 0 .. SIZE-1 of a table that satisfy
+     *  CONDITIONS (which refer to that table alone), storing each into
+     *  element SLOT.  The rows are tested in parallel on POOL's
+     *  threads when the first row is requested. */
+    static RowSource parallel(ForkJoinPool pool, List<Condition> conditions,
+                              int size, int slot) {
+        return new Parallel(pool, conditions, size, slot);
+    }
+
+    /** Return the join of OUTER and INNER: all combinations of a row
+     *  from each that satisfy CONDITIONS, where INNER fills element
+     *  INNERSLOT of rows of length WIDTH.  INNER is read once, when
+     *  the first row is requested, and OUTER as the join proceeds. */
+    static RowSource nestedLoop(RowSource outer, RowSource inner,
+                                int innerSlot, List<Condition> conditions,
+                                int width) {
+        return new NestedLoop(outer, inner, innerSlot, conditions, width);
+    }
+
+    /** Return the join of PROBE and BUILD: all combinations of a row
+     *  from each that agree in the values of PROBEKEY and BUILDKEY,
+     *  respectively, and satisfy CONDITIONS, where BUILD fills element
+     *  BUILDSLOT of rows of length WIDTH.  BUILD is read once into a
+     *  hash table, when the first row is requested; PROBE is then read
+     *  as the join proceeds, so that the time taken is proportional to
+     *  the sizes of the inputs plus that of the output. */
+    static RowSource hashJoin(RowSource probe, List<Column> probeKey,
+                              RowSource build, List<Column> buildKey,
+                              int buildSlot, List<Condition> conditions,
+                              int width) {
+        return new HashJoin(probe, probeKey, build, buildKey, buildSlot,
+                            conditions, width);
+    }
+
+    /** Return the join of LEFT and RIGHT, which deliver rows of
+     *  LEFTTABLE and RIGHTTABLE, respectively, in ascending order, into
+     *  elements LEFTSLOT and RIGHTSLOT of rows of length WIDTH: all
+     *  combinations of a row from each that agree in the values of
+     *  their first KEYLENGTH columns, and satisfy CONDITIONS.  The
+     *  tables must have the same titles and types for those columns.
+     *  Each of LEFT and RIGHT is read once, in step with the other, and
+     *  only the rows of RIGHT with the current key are held at once. */
+    static RowSource mergeJoin(RowSource left, Table leftTable, int leftSlot,
+                               RowSource right, Table rightTable,
+                               int rightSlot, int keyLength,
+                               List<Condition> conditions, int width) {
+        return new MergeJoin(left, leftTable, leftSlot, right, rightTable,
+                             rightSlot, keyLength, conditions, width);
+    }
+
+    /** Return the values of COLUMNS in the row denoted by ROWS, as a key
+     *  suitable for hashing. */
+    static List<String> joinKey(List<Column> columns, int[] rows) {
+        String[] key = new String[columns.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = columns.get(i).getFrom(rows);
+        }
+        return Arrays.asList(key);
+    }
+
+    /** The rows of a table, tested in order of row number, a block at
+     *  a time: the conditions are evaluated over each block into a
+     *  bitmap (see Condition.filter), whose rows are then delivered. */
+    private static class Scan extends RowSource {
+        /** The rows 0 .. SIZE-1 that are in the bitmap MARKS (or all of
+         *  them, if MARKS is null) and satisfy FILTERS, delivered into
+         *  element SLOT.  OPERATION and CONDITIONS describe the scan. */
+        Scan(String operation, long[] marks, int size,
+             List<Condition> conditions, List<Condition> filters,
+             int slot) {
+            super(new Profile(operation, Profile.where(conditions)));
+            _marks = marks;
+            _size = size;
+            _filters = filters;
+            _slot = slot;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            while (_word == 0) {
+                if (_w == _words) {
+                    if (_next == _size) {
+                        return false;
+                    }
+                    fill();
+                }
+                _word = _block[_w];
+                _w += 1;
+            }
+            int b = Long.numberOfTrailingZeros(_word);
+            _word &= _word - 1;
+            rows[_slot] = _low + ((_w - 1) << 6) + b;
+            return true;
+        }
+
+        /** Set _block to the bitmap of the rows satisfying _filters
+         *  among the next BLOCK_ROWS rows (or as many as remain). */
+        private void fill() {
+            _low = _next;
+            _next = Math.min(_size, _low + BLOCK_ROWS);
+            _words = words(_next - _low);
+            if (_marks == null) {
+                setAll(_block, _next - _low);
+                profile().scanned(_next - _low);
+            } else {
+                System.arraycopy(_marks, _low >>> 6, _block, 0, _words);
+                int marked = 0;
+                for (int w = 0; w < _words; w++) {
+                    marked += Long.bitCount(_block[w]);
+                }
+                profile().scanned(marked);
+            }
+            Condition.filter(_filters, _block, _low, _next);
+            _w = 0;
+        }
+
+        /** Number of rows evaluated into a bitmap at once: small enough
+         *  that the bitmap stays in cache. */
+        private static final int BLOCK_ROWS = 1 << 12;
+
+        /** Bitmap of the rows to test, or null for all rows. */
+        private final long[] _marks;
+        /** Number of rows. */
+        private final int _size;
+        /** Conditions to be satisfied. */
+        private final List<Condition> _filters;
+        /** Element of rows to fill. */
+        private final int _slot;
+        /** Bitmap of the selected rows _low .. _next-1. */
+        private final long[] _block = new long[words(BLOCK_ROWS)];
+        /** The first row of _block, and the first row after it. */
+        private int _low, _next;
+        /** Number of words of _block in use, and the index of the
+         *  next word to deliver. */
+        private int _words, _w;
+        /** The rows of word _w - 1 of _block yet to be delivered. */
+        private long _word;
+    }
+
+    /** A given sequence of rows of a table, tested in order. */
+    private static class Listed extends RowSource {
+        /** The rows in ROWS satisfying CONDITIONS, delivered into element
+         *  SLOT, as found by OPERATION. */
+        Listed(String operation, Iterable<Integer> rows,
+               List<Condition> conditions, int slot) {
+            super(new Profile(operation, Profile.where(conditions)));
+            _rows = rows;
+            _conditions = conditions;
+            _slot = slot;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            if (_iter == null) {
+                _iter = _rows.iterator();
+            }
+            while (_iter.hasNext()) {
+                _candidate[0] = _iter.next();
+                profile().scanned(1);
+                if (Condition.test(_conditions, _candidate)) {
+                    rows[_slot] = _candidate[0];
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** The rows to test. */
+        private final Iterable<Integer> _rows;
+        /** Iterator over _rows, or null if not yet started. */
+        private Iterator<Integer> _iter;
+        /** Conditions to be satisfied. */
+        private final List<Condition> _conditions;
+        /** Element of rows to fill. */
+        private final int _slot;
+        /** The row being tested, as seen by _conditions. */
+        private final int[] _candidate = new int[1];
+    }
+
+    /** The rows of a table, tested in parallel. */
+    private static class Parallel extends RowSource {
+        /** The rows 0 .. SIZE-1 satisfying CONDITIONS, found on POOL's
+         *  threads and delivered into element SLOT. */
+        Parallel(ForkJoinPool pool, List<Condition> conditions, int size,
+                 int slot) {
+            super(new Profile("parallel scan", Profile.where(conditions)));
+            _pool = pool;
+            _conditions = conditions;
+            _size = size;
+            _slot = slot;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            if (_selected == null) {
+                _selected = ParallelFilter.filter(_pool, _conditions, _size);
+                profile().scanned(_size);
+            }
+            if (_next == _selected.length) {
+                return false;
+            }
+            rows[_slot] = _selected[_next];
+            _next += 1;
+            return true;
+        }
+
+        /** Pool on which to filter. */
+        private final ForkJoinPool _pool;
+        /** Conditions to be satisfied. */
+        private final List<Condition> _conditions;
+        /** Number of rows. */
+        private final int _size;
+        /** Element of rows to fill. */
+        private final int _slot;
+        /** The selected rows, or null if not yet found. */
+        private int[] _selected;
+        /** Position of the next row to deliver in _selected. */
+        private int _next;
+    }
+
+    /** The join of two sources by nested loops. */
+    private static class NestedLoop extends RowSource {
+        /** See RowSource.nestedLoop(OUTER, INNER, INNERSLOT, CONDITIONS,
+         *  WIDTH). */
+        NestedLoop(RowSource outer, RowSource inner, int innerSlot,
+                   List<Condition> conditions, int width) {
+            super(new Profile("nested loop join", Profile.where(conditions),
+                              outer.profile(), inner.profile()));
+            _outer = outer;
+            _inner = inner;
+            _innerSlot = innerSlot;
+            _conditions = conditions;
+            _width = width;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            if (_innerRows == null) {
+                _innerRows = new ArrayList<>();
+                int[] scratch = new int[_width];
+                while (_inner.next(scratch)) {
+                    _innerRows.add(scratch[_innerSlot]);
+                }
+                _k = _innerRows.size();
+            }
+            if (_innerRows.isEmpty()) {
+                return false;
+            }
+            while (true) {
+                if (_k == _innerRows.size()) {
+                    if (!_outer.next(rows)) {
+                        return false;
+                    }
+                    _k = 0;
+                }
+                rows[_innerSlot] = _innerRows.get(_k);
+                _k += 1;
+                profile().scanned(1);
+                if (Condition.test(_conditions, rows)) {
+                    return true;
+                }
+            }
+        }
+
+        /** The outer source. */
+        private final RowSource _outer;
+        /** The inner source. */
+        private final RowSource _inner;
+        /** Element of rows filled by _inner. */
+        private final int _innerSlot;
+        /** Conditions on joined rows. */
+        private final List<Condition> _conditions;
+        /** Length of rows. */
+        private final int _width;
+        /** The rows delivered by _inner, or null if not yet read. */
+        private ArrayList<Integer> _innerRows;
+        /** Position in _innerRows of the next row to pair with the
+         *  current outer row. */
+        private int _k;
+    }
+
+    /** The join of two ordered sources by merging. */
+    private static class MergeJoin extends RowSource {
+        /** See RowSource.mergeJoin(LEFT, LEFTTABLE, LEFTSLOT, RIGHT,
+         *  RIGHTTABLE, RIGHTSLOT, KEYLENGTH, CONDITIONS, WIDTH). */
+        MergeJoin(RowSource left, Table leftTable, int leftSlot,
+                  RowSource right, Table rightTable, int rightSlot,
+                  int keyLength, List<Condition> conditions, int width) {
+            super(new Profile("merge join", on(rightTable, keyLength)
+                              + Profile.where(conditions),
+                              left.profile(), right.profile()));
+            _left = left;
+            _leftTable = leftTable;
+            _leftSlot = leftSlot;
+            _right = right;
+            _rightTable = rightTable;
+            _rightSlot = rightSlot;
+            _keyLength = keyLength;
+            _conditions = conditions;
+            _width = width;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            if (_next == null) {
+                _next = new int[_width];
+                _more = _right.next(_next);
+            }
+            while (true) {
+                if (_k < _group.size()) {
+                    rows[_rightSlot] = _group.get(_k);
+                    _k += 1;
+                    profile().scanned(1);
+                    if (Condition.test(_conditions, rows)) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (!_left.next(rows)) {
+                    return false;
+                }
+                int row = rows[_leftSlot];
+                _k = 0;
+                if (!_group.isEmpty() && compare(row, _group.get(0)) == 0) {
+                    continue;
+                }
+                _group.clear();
+                while (_more && compare(row, _next[_rightSlot]) > 0) {
+                    _more = _right.next(_next);
+                }
+                while (_more && compare(row, _next[_rightSlot]) == 0) {
+                    _group.add(_next[_rightSlot]);
+                    _more = _right.next(_next);
+                }
+                if (_group.isEmpty() && !_more) {
+                    return false;
+                }
+            }
+        }
+
+        /** Return <0, 0, or >0 depending on whether the key of row
+         *  LEFTROW of _leftTable is less than, equal to, or greater
+         *  than that of row RIGHTROW of _rightTable. */
+        private int compare(int leftRow, int rightRow) {
+            return _leftTable.compareRows(leftRow, _rightTable, rightRow,
+                                          _keyLength);
+        }
+
+        /** Return " on " followed by the titles of the first KEYLENGTH
+         *  columns of TABLE, separated by commas. */
+        private static String on(Table table, int keyLength) {
+            StringBuilder result = new StringBuilder(" on ");
+            for (int c = 0; c < keyLength; c++) {
+                if (c > 0) {
+                    result.append(", ");
+                }
+                result.append(table.getTitle(c));
+            }
+            return result.toString();
+        }
+
+        /** The source of rows of _leftTable. */
+        private final RowSource _left;
+        /** The table whose rows _left delivers. */
+        private final Table _leftTable;
+        /** Element of rows filled by _left. */
+        private final int _leftSlot;
+        /** The source of rows of _rightTable. */
+        private final RowSource _right;
+        /** The table whose rows _right delivers. */
+        private final Table _rightTable;
+        /** Element of rows filled by _right. */
+        private final int _rightSlot;
+        /** Number of leading columns forming the key. */
+        private final int _keyLength;
+        /** Conditions on joined rows. */
+        private final List<Condition> _conditions;
+        /** Length of rows. */
+        private final int _width;
+        /** The next unread row of _right, in element _rightSlot, or null
+         *  if reading has not started. */
+        private int[] _next;
+        /** True iff _next holds a row. */
+        private boolean _more;
+        /** The rows of _right whose key is that of the current row of
+         *  _left, or those of the previous row if it had the same key. */
+        private final ArrayList<Integer> _group = new ArrayList<>();
+        /** Position in _group of the next row to pair with the current
+         *  row of _left. */
+        private int _k;
+    }
+
+    /** The join of two sources by hashing. */
+    private static class HashJoin extends RowSource {
+        /** See RowSource.hashJoin(PROBE, PROBEKEY, BUILD, BUILDKEY,
+         *  BUILDSLOT, CONDITIONS, WIDTH). */
+        HashJoin(RowSource probe, List<Column> probeKey,
+                 RowSource build, List<Column> buildKey, int buildSlot,
+                 List<Condition> conditions, int width) {
+            super(new Profile("hash join", on(buildKey)
+                              + Profile.where(conditions),
+                              probe.profile(), build.profile()));
+            _probe = probe;
+            _probeKey = probeKey;
+            _build = build;
+            _buildKey = buildKey;
+            _buildSlot = buildSlot;
+            _conditions = conditions;
+            _width = width;
+        }
+
+        @Override
+        boolean advance(int[] rows) {
+            if (_buckets == null) {
+                _buckets = new HashMap<>();
+                int[] scratch = new int[_width];
+                while (_build.next(scratch)) {
+                    List<String> key = joinKey(_buildKey, scratch);
+                    ArrayList<Integer> bucket = _buckets.get(key);
+                    if (bucket == null) {
+                        bucket = new ArrayList<>();
+                        _buckets.put(key, bucket);
+                    }
+                    bucket.add(scratch[_buildSlot]);
+                }
+            }
+            while (true) {
+                if (_bucket == null || _k == _bucket.size()) {
+                    if (_buckets.isEmpty() || !_probe.next(rows)) {
+                        return false;
+                    }
+                    _bucket = _buckets.get(joinKey(_probeKey, rows));
+                    _k = 0;
+                    continue;
+                }
+                rows[_buildSlot] = _bucket.get(_k);
+                _k += 1;
+                profile().scanned(1);
+                if (Condition.test(_conditions, rows)) {
+                    return true;
+                }
+            }
+        }
+
+        /** Return " on " followed by the names of KEY, separated by
+         *  commas. */
+        private static String on(List<Column> key) {
+            StringBuilder result = new StringBuilder(" on ");
+            for (int i = 0; i < key.size(); i++) {
+                if (i > 0) {
+                    result.append(", ");
+                }
+                result.append(key.get(i).getName());
+            }
+            return result.toString();
+        }
+
+        /** The source whose rows are looked up. */
+        private final RowSource _probe;
+        /** The columns of _probe's rows to look up. */
+        private final List<Column> _probeKey;
+        /** The source whose rows are hashed. */
+        private final RowSource _build;
+        /** The columns by which _build's rows are hashed. */
+        private final List<Column> _buildKey;
+        /** Element of rows filled by _build. */
+        private final int _buildSlot;
+        /** Conditions on joined rows. */
+        private final List<Condition> _conditions;
+        /** Length of rows. */
+        private final int _width;
+        /** Rows of _build, keyed by their values of _buildKey, or null
+         *  if not yet read. */
+        private HashMap<List<String>, ArrayList<Integer>> _buckets;
+        /** The rows of _build matching the current row of _probe, or
+         *  null if there are none. */
+        private ArrayList<Integer> _bucket;
+        /** Position in _bucket of the next row to pair with the current
+         *  row of _probe. */
+        private int _k;
+    }
+
+    /** The record of my execution. */
+    private final Profile _profile;
+}
@@ -0,0 +1,390 @@
+package db61b;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static db61b.Utils.*;
+
+/** The result of a select clause, evaluated lazily.  Rows are drawn
+ *  from a pipeline of RowSources (scans, filters, and joins) only as
+ *  they are needed, projected onto the selected columns, and
+ *  deduplicated.  A Selection becomes a Table only when one is needed
+ *  (as for "create table ... as select"); printing it streams its rows
+ *  instead.  A Selection may be consumed only once.  Its Profile
+ *  describes its plan and records its execution.
+ *  @author Justin Yang */
+class Selection {
+
+    /** The columns named COLUMNNAMES from the rows delivered by ROWS,
+     *  which are rows of TABLES (the from list).  If ORDERED, ROWS
+     *  delivers its rows in ascending order of their values in the
+     *  selected columns. */
+    Selection(List<String> columnNames, Table[] tables, RowSource rows,
+              boolean ordered) {
+        Profile input = rows.profile();
+        if (!ordered) {
+            _sort = new Profile("sort", "", input);
+            input = _sort;
+        }
+        _profile = project(columnNames, input);
+        bind(columnNames, tables, rows, ordered);
+    }
+
+    /** The columns named COLUMNNAMES of all the rows of the Table
+     *  supplied by SOURCE, which is called only when my rows are first
+     *  needed.  INPUT describes how SOURCE produces its Table.  A Table
+     *  made of my rows copies them (see toTable). */
+    Selection(List<String> columnNames, Supplier<Table> source,
+              Profile input) {
+        _profile = project(columnNames, input);
+        _columnNames = columnNames;
+        _source = source;
+        _copied = true;
+    }
+
+    /** Set my columns to COLUMNNAMES, from the rows delivered by ROWS,
+     *  which are rows of TABLES, in order iff ORDERED. */
+    private void bind(List<String> columnNames, Table[] tables,
+                      RowSource rows, boolean ordered) {
+        _columnNames = columnNames;
+        _columns = new ArrayList<>();
+        _values = new ValueList[columnNames.size()];
+        _slots = new int[columnNames.size()];
+        for (int c = 0; c < _values.length; c++) {
+            Column column = new Column(columnNames.get(c), tables);
+            _columns.add(column);
+            _values[c] = column.getValues();
+            _slots[c] = column.getTableIndex();
+        }
+        _width = tables.length;
+        _rows = rows;
+        _ordered = ordered;
+    }
+
+    /** Return the profile of a projection onto COLUMNNAMES of the rows
+     *  described by INPUT. */
+    private static Profile project(List<String> columnNames,
+                                   Profile input) {
+        return new Profile("project", " " + String.join(", ", columnNames),
+                           input);
+    }
+
+    /** Return a Selection of all the rows and columns of TABLE, whose
+     *  plan is described by OPERATION (such as "cached result"). */
+    static Selection of(Table table, String operation) {
+        ArrayList<String> titles = new ArrayList<>();
+        for (int c = 0; c < table.columns(); c++) {
+            titles.add(table.getTitle(c));
+        }
+        return new Selection(titles, () -> table,
+                             new Profile(operation, ""));
+    }
+
+    /** Return the description of my plan, whose statistics are filled
+     *  in as my rows are produced. */
+    Profile profile() {
+        return _profile;
+    }
+
+    /** Return a new Table containing my rows.  If they are rows of a
+     *  single table from my from list, the result is a view of that
+     *  table (see Table.view), which refers to its values rather than
+     *  copying them.  Rows of a supplied Table (such as a cached result,
+     *  which the cache may later discard, or an aggregate) are copied,
+     *  so that the result does not keep that Table in memory while
+     *  accounting (see Table.memoryUsage) only for its row numbers. */
+    Table toTable() {
+        _profile.start();
+        supply();
+        collect();
+        _profile.emitted(_count);
+        Table result = table();
+        _profile.stop();
+        return result;
+    }
+
+    /** Print my rows on the standard output in order, separated by
+     *  spaces and indented by two spaces, as for Table.print.  If my
+     *  rows are delivered in order, each is written as soon as it is
+     *  produced, so that only the previous row (to detect duplicates)
+     *  is held in memory; otherwise, only the row numbers of my rows
+     *  are held, in one array, while they are sorted. */
+    void print() {
+        print(System.out);
+    }
+
+    /** Print my rows on OUT, as for print(). */
+    void print(PrintStream out) {
+        print(out, -1);
+    }
+
+    /** Print my rows on OUT, as for print(), and return a Table
+     *  containing them, as for toTable, if it would occupy no more
+     *  than LIMIT bytes, or otherwise null.  For caching the result:
+     *  whether the Table fits is decided before it is built, from the
+     *  rows held for printing, so that a result too large to be kept is
+     *  never materialized. */
+    Table print(PrintStream out, long limit) {
+        _profile.start();
+        supply();
+        Writer output = new BufferedWriter(new OutputStreamWriter(out));
+        Table result = null;
+        try {
+            if (_ordered) {
+                result = stream(output, limit);
+            } else {
+                collect();
+                for (int k = 0; k < _count; k++) {
+                    write(output, _tuples, k);
+                }
+                if (tableBytes() <= limit) {
+                    result = table();
+                }
+            }
+            output.flush();
+        } catch (IOException e) {
+            throw error("trouble writing to standard output");
+        }
+        _profile.stop();
+        return result;
+    }
+
+    /** Write my rows, which are delivered in order, to OUTPUT as they
+     *  are produced.  Return a Table of them (see table) if it would
+     *  occupy no more than LIMIT bytes, and otherwise null. */
+    private Table stream(Writer output, long limit) throws IOException {
+        int[] rows = new int[_width], previous = null;
+        int[] kept = _width == 1 && limit > 0 ? new int[INITIAL_ROWS] : null;
+        int n = 0;
+        while (_rows.next(rows)) {
+            _profile.scanned(1);
+            if (previous == null || compare(previous, rows) != 0) {
+                write(output, rows, 0);
+                previous = rows.clone();
+                if (kept != null && n == kept.length) {
+                    kept = 4L * n < limit ? Arrays.copyOf(kept, 2 * n)
+                        : null;
+                }
+                if (kept != null) {
+                    kept[n] = rows[0];
+                    n += 1;
+                }
+            }
+        }
+        if (kept == null) {
+            return null;
+        }
+        _tuples = kept;
+        _count = n;
+        return tableBytes() <= limit ? table() : null;
+    }
+
+    /** Collect my rows, in order and without duplicates, into _tuples,
+     *  where row k consists of the row numbers _tuples[k * _width] ..
+     *  _tuples[(k + 1) * _width - 1], and set _count to their number.
+     *  The rows are held in a single array, which occupies 4 * _width
+     *  bytes per row, and sorted in place of that by a permutation. */
+    private void collect() {
+        int[] tuples = new int[INITIAL_ROWS * _width], rows = new int[_width];
+        int n;
+        if (!_ordered) {
+            _sort.start();
+        }
+        for (n = 0; _rows.next(rows); n += 1) {
+            if ((n + 1) * _width > tuples.length) {
+                tuples = Arrays.copyOf(tuples, 2 * tuples.length);
+            }
+            System.arraycopy(rows, 0, tuples, n * _width, _width);
+        }
+        int[] order = new int[n];
+        for (int k = 0; k < n; k += 1) {
+            order[k] = k;
+        }
+        if (!_ordered) {
+            sort(tuples, order, n);
+            _sort.scanned(n);
+            _sort.emitted(n);
+            _sort.stop();
+        }
+        int m = 0;
+        for (int k = 0; k < n; k += 1) {
+            _profile.scanned(1);
+            if (m == 0 || compare(tuples, order[m - 1], order[k]) != 0) {
+                order[m] = order[k];
+                m += 1;
+            }
+        }
+        _tuples = new int[m * _width];
+        for (int k = 0; k < m; k += 1) {
+            System.arraycopy(tuples, order[k] * _width, _tuples, k * _width,
+                             _width);
+        }
+        _count = m;
+    }
+
+    /** Return a Table containing the rows in _tuples: a view of my
+     *  single table, if I have one and am not _copied, and otherwise a
+     *  copy. */
+    private Table table() {
+        if (_width == 1 && !_copied) {
+            int[] columns = new int[_columns.size()];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = _columns.get(c).getColumn();
+            }
+            return Table.view(_columnNames, _columns.get(0).getTable(),
+                              columns, _tuples, _count);
+        }
+        ValueList[] columns = new ValueList[_values.length];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = _values[c].emptyCopy();
+            for (int k = 0; k < _count; k++) {
+                columns[c].add(_values[c].get(_tuples[k * _width
+                                                      + _slots[c]]));
+            }
+        }
+        Table result = new Table(_columnNames);
+        result.loadSorted(columns, _count);
+        return result;
+    }
+
+    /** Return the approximate number of bytes that table() would
+     *  occupy, estimating the cost of each copied value as the average
+     *  per row of the column it comes from. */
+    private long tableBytes() {
+        if (_width == 1 && !_copied) {
+            return HEADER_BYTES + 4L * _count;
+        }
+        double perRow = TREE_ENTRY_BYTES + BOXED_INT_BYTES;
+        for (ValueList values : _values) {
+            perRow +=
+                (double) values.memoryUsage() / Math.max(1, values.size());
+        }
+        return (long) (perRow * _count);
+    }
+
+    /** If my rows are those of a Table yet to be supplied, obtain it,
+     *  and arrange to deliver all its rows in order. */
+    private void supply() {
+        if (_source != null) {
+            Table table = _source.get();
+            _source = null;
+            Table[] tables = { table };
+            bind(_columnNames, tables,
+                 table.orderedRows(new ArrayList<Condition>(), 0), true);
+        }
+    }
+
+    /** Write my columns from the row numbers ROWS[K * _width] ..
+     *  ROWS[(K + 1) * _width - 1] to OUTPUT as one line of output from
+     *  print. */
+    private void write(Writer output, int[] rows, int k) throws IOException {
+        _profile.emitted(1);
+        output.write("  ");
+        for (int c = 0; c < _values.length; c++) {
+            output.write(_values[c].get(rows[k * _width + _slots[c]]));
+            if (c != _values.length - 1) {
+                output.write(" ");
+            }
+        }
+        output.write("\n");
+    }
+
+    /** Return <0, 0, or >0 depending on whether the values of my columns
+     *  from ROWS0 are lexicographically less than, equal to, or greater
+     *  than those from ROWS1. */
+    private int compare(int[] rows0, int[] rows1) {
+        for (int c = 0; c < _values.length; c++) {
+            int cmp = _values[c].compare(rows0[_slots[c]], rows1[_slots[c]]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Return <0, 0, or >0 depending on whether the values of my columns
+     *  from row K0 of TUPLES (see collect) are lexicographically less
+     *  than, equal to, or greater than those from row K1. */
+    private int compare(int[] tuples, int k0, int k1) {
+        for (int c = 0; c < _values.length; c++) {
+            int cmp = _values[c].compare(tuples[k0 * _width + _slots[c]],
+                                         tuples[k1 * _width + _slots[c]]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Sort ORDER[0 .. N-1], a permutation of the rows of TUPLES (see
+     *  collect), into ascending order of my columns' values in those
+     *  rows, by a bottom-up merge sort. */
+    private void sort(int[] tuples, int[] order, int n) {
+        int[] from = order, to = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(lo + width, n),
+                    hi = Math.min(lo + 2 * width, n);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    if (compare(tuples, from[j], from[i]) < 0) {
+                        to[k++] = from[j++];
+                    } else {
+                        to[k++] = from[i++];
+                    }
+                }
+                System.arraycopy(from, i, to, k, mid - i);
+                System.arraycopy(from, j, to, k + mid - i, hi - j);
+            }
+            int[] tmp = from;
+            from = to;
+            to = tmp;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, n);
+        }
+    }
+
+    /** Initial capacity, in rows, of the arrays of rows collected by
+     *  collect and stream. */
+    private static final int INITIAL_ROWS = 16;
+
+    /** Names of my columns. */
+    private List<String> _columnNames;
+    /** My columns, selected from the from list. */
+    private ArrayList<Column> _columns;
+    /** _values[c] contains the values of my column #c. */
+    private ValueList[] _values;
+    /** _slots[c] is the index in the from list of the table containing
+     *  my column #c. */
+    private int[] _slots;
+    /** Number of tables in the from list. */
+    private int _width;
+    /** Source of my rows. */
+    private RowSource _rows;
+    /** True iff _rows delivers rows in order. */
+    private boolean _ordered;
+    /** Supplier of the Table whose rows are mine, or null if my columns
+     *  and rows have been set (by bind). */
+    private Supplier<Table> _source;
+    /** True iff a Table made of my rows must copy them, rather than
+     *  being a view (see toTable). */
+    private boolean _copied;
+    /** Description of my plan. */
+    private final Profile _profile;
+    /** Description of the sorting of my rows, or null if they are
+     *  delivered in order. */
+    private Profile _sort;
+    /** My rows, once collected (see collect), each as _width row
+     *  numbers. */
+    private int[] _tuples;
+    /** The number of rows in _tuples. */
+    private int _count;
+}
@@ -0,0 +1,148 @@
+package db61b;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A server that accepts connections on a local socket and conducts a
+ *  session on each: a CommandInterpreter reading commands from the
+ *  connection and writing its output (including the banner, prompts,
+ *  and error messages, as does Main) back to it.  All sessions share
+ *  one Database, so that a table is loaded, and held in memory, once
+ *  however many clients use it.  Statements that only read the
+ *  database run concurrently, and those that change it run one at a
+ *  time (see CommandInterpreter.statement).  Each session has a thread
+ *  of its own, from a pool that grows with the number of sessions and
+ *  reuses the threads of those that have ended.
+ *
+ *  Usage: java db61b.Server [PORT], where PORT defaults to
+ *  DEFAULT_PORT.  The server listens only on the loopback address.
+ *  See Client for a client.
+ *  @author Justin Yang */
+public class Server {
+
+    /** Serve a new database on the port given by ARGS, if any, until
+     *  killed. */
+    public static void main(String... args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0])
+                : DEFAULT_PORT;
+            Server server = new Server(new Database(), port);
+            System.out.printf("DB61B server listening on port %d.%n",
+                              server.port());
+            server.serve();
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad port number: %s%n", args[0]);
+            System.exit(1);
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A server for DATABASE, listening on the loopback address at PORT,
+     *  or at any free port if PORT is 0. */
+    Server(Database database, int port) throws IOException {
+        _database = database;
+        _socket = new ServerSocket(port, BACKLOG,
+                                   InetAddress.getLoopbackAddress());
+        _sessions = Executors.newCachedThreadPool(session -> {
+            Thread thread = new Thread(session, "db61b-session");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Return the port on which I listen. */
+    int port() {
+        return _socket.getLocalPort();
+    }
+
+    /** Accept connections, starting a session on each, until I am
+     *  closed. */
+    void serve() throws IOException {
+        while (true) {
+            Socket connection;
+            try {
+                connection = _socket.accept();
+            } catch (SocketException excp) {
+                if (_socket.isClosed()) {
+                    return;
+                }
+                throw excp;
+            }
+            _sessions.execute(() -> session(connection));
+        }
+    }
+
+    /** Stop accepting connections, and commit and close the logs of my
+     *  database once no statement is executing.  Sessions in progress
+     *  continue until their clients disconnect, but no longer log their
+     *  changes. */
+    void close() {
+        try {
+            _socket.close();
+        } catch (IOException excp) {
+            /* Ignore IOException */
+        }
+        _sessions.shutdown();
+        Lock lock = _database.lock().writeLock();
+        lock.lock();
+        try {
+            _database.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Conduct a session on CONNECTION, closing it at the end. */
+    private void session(Socket connection) {
+        try (Socket socket = connection) {
+            Reader input =
+                new InputStreamReader(socket.getInputStream(), UTF_8);
+            PrintStream output = new PrintStream(
+                new BufferedOutputStream(socket.getOutputStream()),
+                true, UTF_8);
+            output.printf("DB61B System.  Version %s.%n", Main.VERSION);
+            CommandInterpreter interpreter =
+                new CommandInterpreter(input, output, output, _database);
+            while (true) {
+                try {
+                    if (!interpreter.statement()) {
+                        break;
+                    }
+                } catch (DBException excp) {
+                    output.printf("Error: %s%n", excp.getMessage());
+                    interpreter.skipCommand();
+                }
+            }
+            interpreter.close();
+            output.flush();
+        } catch (IOException excp) {
+            /* The connection has failed: end the session. */
+        }
+    }
+
+    /** Port on which a server listens by default. */
+    static final int DEFAULT_PORT = 6161;
+    /** Maximum number of connections awaiting acceptance. */
+    private static final int BACKLOG = 50;
+
+    /** The database shared by all sessions. */
+    private final Database _database;
+    /** The socket on which I accept connections. */
+    private final ServerSocket _socket;
+    /** Runs sessions, each on a thread of its own. */
+    private final ExecutorService _sessions;
+}
@@ -0,0 +1,67 @@
+package db61b;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static db61b.Utils.*;
+
+/** An assignment of distinct integer codes to distinct Strings.  Codes
+ *  are handed out consecutively from 0 as new Strings are encoded, and
+ *  are never reassigned, so that two values encoded by the same
+ *  dictionary are equal iff their codes are.
+ *  @author Justin Yang */
+class StringDictionary {
+
+    /** Return the code for VALUE, assigning it a new one if needed. */
+    int encode(String value) {
+        Integer code = _codes.get(value);
+        if (code == null) {
+            code = _values.size();
+            _codes.put(value, code);
+            _values.add(value);
+        }
+        return code;
+    }
+
+    /** Return the code for VALUE, or -1 if it has none. */
+    int find(String value) {
+        Integer code = _codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /** Return the value whose code is CODE. */
+    String get(int code) {
+        return _values.get(code);
+    }
+
+    /** Return <0, 0, or >0 depending on whether the value with code
+     *  CODE0 is less than, equal to, or greater than that with code
+     *  CODE1. */
+    int compare(int code0, int code1) {
+        if (code0 == code1) {
+            return 0;
+        }
+        return _values.get(code0).compareTo(_values.get(code1));
+    }
+
+    /** Return my number of distinct values. */
+    int size() {
+        return _values.size();
+    }
+
+    /** Return the approximate number of bytes of heap that I
+     *  occupy. */
+    long memoryUsage() {
+        long total = 2 * (HEADER_BYTES + LIST_BYTES);
+        for (String value : _values) {
+            total += stringBytes(value) + HASH_ENTRY_BYTES + BOXED_INT_BYTES
+                + REFERENCE_BYTES;
+        }
+        return total;
+    }
+
+    /** Maps values to their codes. */
+    private final HashMap<String, Integer> _codes = new HashMap<>();
+    /** The value with code k is _values.get(k). */
+    private final ArrayList<String> _values = new ArrayList<>();
+}
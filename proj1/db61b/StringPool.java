@@ -0,0 +1,70 @@
+package db61b;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static db61b.Utils.*;
+
+/** A pool of Strings, in which equal values are represented by one
+ *  shared instance.  A Database pools the values of the tables it loads
+ *  and the rows inserted into them, so that a value repeated within a
+ *  column that is not dictionary-encoded, or across columns or tables,
+ *  is held in memory once, has its hash code computed once, and may be
+ *  recognized as equal to another by comparing references.  A pool may
+ *  be used by concurrent sessions.  So that it cannot grow without
+ *  bound (it is not emptied as tables are dropped), a pool stops adding
+ *  values once it holds a given number of them, although it continues
+ *  to share those it has.
+ *  @author Justin Yang */
+class StringPool {
+
+    /** An empty pool that holds up to DEFAULT_CAPACITY values. */
+    StringPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** An empty pool that holds up to CAPACITY values. */
+    StringPool(int capacity) {
+        _strings = new ConcurrentHashMap<>();
+        _capacity = capacity;
+    }
+
+    /** Return the pooled instance equal to VALUE, adding VALUE to the
+     *  pool if there is none and the pool is not full. */
+    String intern(String value) {
+        String pooled = _strings.get(value);
+        if (pooled != null) {
+            return pooled;
+        } else if (_strings.size() >= _capacity) {
+            return value;
+        }
+        pooled = _strings.putIfAbsent(value, value);
+        return pooled == null ? value : pooled;
+    }
+
+    /** Return the pooled instance equal to VALUE, if any, and otherwise
+     *  VALUE itself, without adding it to the pool. */
+    String find(String value) {
+        String pooled = _strings.get(value);
+        return pooled == null ? value : pooled;
+    }
+
+    /** Return the number of values I hold. */
+    int size() {
+        return _strings.size();
+    }
+
+    /** Return the approximate number of bytes of heap occupied by my
+     *  table of values, not counting the values themselves (which are
+     *  counted by the tables that use them). */
+    long memoryUsage() {
+        return HEADER_BYTES + (long) HASH_ENTRY_BYTES * _strings.size();
+    }
+
+    /** Default maximum number of values in a pool. */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /** Maps each pooled value to itself. */
+    private final ConcurrentHashMap<String, String> _strings;
+    /** Maximum number of values in _strings. */
+    private final int _capacity;
+}
@@ -1,12 +1,30 @@
 package db61b;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import static db61b.Utils.*;
 
@@ -15,8 +33,15 @@ import static db61b.Utils.*;
  */
 class Table {
     /** A new Table whose columns are given by COLUMNTITLES, which may
-     *  not contain duplicate names. */
+     *  not contain duplicate names, and hold strings. */
     Table(String[] columnTitles) {
+        this(columnTitles, null);
+    }
+
+    /** A new Table whose columns are given by COLUMNTITLES, which may
+     *  not contain duplicate names, and whose column types are given by
+     *  TYPES.  If TYPES is null, all columns hold strings. */
+    Table(String[] columnTitles, ColumnType[] types) {
         if (columnTitles.length == 0) {
             throw error("table must have at least one column");
         }
@@ -35,7 +60,8 @@ class Table {
         _titles = columnTitles;
         _columns = new ValueList[_rowSize];
         for (int i = 0; i < _rowSize; i++) {
-            _columns[i] = new ValueList();
+            _columns[i] =
+                types == null ? new PlainValueList() : types[i].newList();
         }
     }
 
@@ -80,35 +106,122 @@ class Table {
         }
     }
 
+    /** Return the approximate number of bytes of heap that I occupy.
+     *  Dictionaries shared with other tables are counted in full, but
+     *  the values to which a view refers are not. */
+    long memoryUsage() {
+        long total =
+            (long) (TREE_ENTRY_BYTES + BOXED_INT_BYTES) * _index.size();
+        if (_viewRows != null) {
+            total += HEADER_BYTES + 4L * _viewRows.length;
+        }
+        for (ValueList column : _columns) {
+            total += column.memoryUsage();
+        }
+        for (ColumnIndex index : _columnIndexes.values()) {
+            total += index.memoryUsage();
+        }
+        return total;
+    }
+
+    /** Return my version: a number that changes whenever rows are
+     *  added to me, so that results computed from me can be recognized
+     *  as out of date. */
+    long version() {
+        return _version;
+    }
+
+    /** Return the type of my column number COL. */
+    ColumnType getType(int col) {
+        return _columns[col].getType();
+    }
+
+    /** Return the values of my column number COL. */
+    ValueList getValues(int col) {
+        return _columns[col];
+    }
+
+    /** Return the number of distinct values in my column #COL.  Such
+     *  statistics (used to estimate the costs of queries) are gathered
+     *  when first needed, and again once I have more than doubled in
+     *  size since they were last gathered, so they may be out of date
+     *  in the meantime.  Synchronized, since concurrent queries may
+     *  gather them. */
+    synchronized int distinctValues(int col) {
+        if (_distinct == null || size() > 2 * _statisticsSize) {
+            _distinct = new int[_rowSize];
+            Arrays.fill(_distinct, -1);
+            _statisticsSize = size();
+        }
+        if (_distinct[col] == -1) {
+            ValueList values = _columns[col];
+            if (values.getDictionary() != null) {
+                BitSet codes = new BitSet();
+                for (int r = 0; r < size(); r++) {
+                    codes.set(values.getCode(r));
+                }
+                _distinct[col] = codes.cardinality();
+            } else {
+                HashSet<String> distinct = new HashSet<>();
+                for (int r = 0; r < size(); r++) {
+                    distinct.add(values.get(r));
+                }
+                _distinct[col] = distinct.size();
+            }
+        }
+        return _distinct[col];
+    }
+
     /** Add a new row whose column values are VALUES to me if no equal
      *  row already exists.  Return true if anything was added,
      *  false otherwise. */
     public boolean add(String[] values) {
+        return addRow(canonical(values));
+    }
+
+    /** Return VALUES, which must have one value per column, with each
+     *  value converted to the canonical form for its column's type.
+     *  Returns VALUES itself if no conversion is needed. */
+    private String[] canonical(String[] values) {
+        if (values.length != _rowSize) {
+            throw error("wrong number of values in row: expected %d",
+                        _rowSize);
+        }
+        String[] result = values;
         for (int i = 0; i < _rowSize; i++) {
-            _columns[i].add(values[i]);
+            ColumnType type = getType(i);
+            if (type.isNumeric()) {
+                if (result == values) {
+                    result = values.clone();
+                }
+                result[i] = type.canonical(values[i]);
+            }
         }
-        _size++;
+        return result;
+    }
 
-        int idx = size() - 1;
-        for (int i = 0; i < size() - 1; i++) {
-            int cmp = compareRows(_index.get(i), size() - 1);
-            if (cmp == 0) {
-                removeFinalRow();
-                return false;
-            } else if (cmp > 0) {
-                idx = i;
-                break;
-            }
+    /** Add a new row whose column values are VALUES, which must be in
+     *  canonical form, to me if no equal row already exists.  Return
+     *  true if anything was added, false otherwise. */
+    private boolean addRow(String[] values) {
+        appendValues(values);
+        if (!_index.add(size() - 1)) {
+            removeFinalRow();
+            return false;
+        }
+        for (int col : _columnIndexes.keySet()) {
+            _columnIndexes.get(col).add(values[col], size() - 1);
         }
-        _index.add(idx, size() - 1);
+        _version += 1;
         return true;
     }
 
     /** Removes the final row in the _columns array, to be used as a helper
-     *  function for add. */
+     *  function for add.  That row was added by appendValues, so I am
+     *  not a view. */
     private void removeFinalRow() {
         for (int i = 0; i < _rowSize; i++) {
-            _columns[i].remove(size() - 1);
+            _columns[i].removeLast();
         }
         _size--;
     }
@@ -116,9 +229,9 @@ class Table {
     /** Add a new row whose column values are extracted by COLUMNS from
      *  the rows indexed by ROWS, if no equal row already exists.
      *  Return true if anything was added, false otherwise. See
-     *  Column.getFrom(Integer...) for a description of how Columns
+     *  Column.getFrom(int[]) for a description of how Columns
      *  extract values. */
-    public boolean add(List<Column> columns, Integer... rows) {
+    public boolean add(List<Column> columns, int[] rows) {
         String[] values = new String[_rowSize];
         for (int i = 0; i < _rowSize; i++) {
             values[i] = columns.get(i).getFrom(rows);
@@ -126,9 +239,271 @@ class Table {
         return add(values);
     }
 
-    /** Read the contents of the file NAME.db, and return as a Table.
-     *  Format errors in the .db file cause a DBException. */
+    /** Add all the rows in ROWS, each an array of column values, to me,
+     *  skipping those equal to a row already present (or to an earlier
+     *  row in ROWS).  Return the number of rows actually added.  ROWS
+     *  is sorted and deduplicated first.  When ROWS is large compared
+     *  to me, it is then merged with my existing rows in a single
+     *  pass, and my index rebuilt from the merged order; otherwise, its
+     *  rows are inserted one at a time. */
+    public int addAll(List<String[]> rows) {
+        /* A view has no _index to merge with, nor encodings to choose. */
+        materialize();
+        String[][] batch = new String[rows.size()][];
+        for (int k = 0; k < batch.length; k++) {
+            batch[k] = canonical(rows.get(k));
+        }
+        Arrays.sort(batch, this::compareValues);
+        if (size() == 0) {
+            chooseEncodings(batch);
+        }
+        int m = 0;
+        for (String[] values : batch) {
+            if (m == 0 || compareValues(batch[m - 1], values) != 0) {
+                batch[m] = values;
+                m += 1;
+            }
+        }
+
+        int n = size();
+        long insertCost =
+            (long) m * (32 - Integer.numberOfLeadingZeros(n + m));
+        if (insertCost < n + m) {
+            for (int k = 0; k < m; k++) {
+                addRow(batch[k]);
+            }
+        } else {
+            mergeAll(batch, m);
+        }
+        return size() - n;
+    }
+
+    /** Add the first M rows of BATCH, which must be distinct and in
+     *  ascending order, to me, skipping those equal to a row already
+     *  present.  Takes time linear in M plus my size. */
+    private void mergeAll(String[][] batch, int m) {
+        int[] order = new int[size() + m];
+        int k, b;
+        k = b = 0;
+        Iterator<Integer> old = _index.iterator();
+        int next = old.hasNext() ? old.next() : -1;
+        while (next != -1 || b < m) {
+            int c;
+            if (next == -1) {
+                c = 1;
+            } else if (b == m) {
+                c = -1;
+            } else {
+                c = compareRow(next, batch[b]);
+            }
+            if (c <= 0) {
+                order[k] = next;
+                next = old.hasNext() ? old.next() : -1;
+                if (c == 0) {
+                    b += 1;
+                }
+            } else {
+                appendRow(batch[b]);
+                order[k] = size() - 1;
+                b += 1;
+            }
+            k += 1;
+        }
+        _index.clear();
+        _index.addAll(new SortedRows(order, 0, k));
+    }
+
+    /** Add a new row whose column values are VALUES as my last row,
+     *  without checking for duplicates or adding it to _index. */
+    private void appendRow(String[] values) {
+        appendValues(values);
+        _version += 1;
+        for (int col : _columnIndexes.keySet()) {
+            _columnIndexes.get(col).add(values[col], size() - 1);
+        }
+    }
+
+    /** Append VALUES to my columns as a new last row, first
+     *  materializing me if I am a view.  This is the only way in which
+     *  values are added to my columns, so that those of a view (which
+     *  cannot be added to) never are. */
+    private void appendValues(String[] values) {
+        materialize();
+        for (int i = 0; i < _rowSize; i++) {
+            _columns[i].add(values[i]);
+        }
+        _size++;
+    }
+
+    /** Assuming I am empty, choose the representation of each of my
+     *  columns according to the values it will hold, as given by ROWS.
+     *  A string column in which values repeat, on average, at least
+     *  ENCODING_THRESHOLD times is dictionary-encoded. */
+    private void chooseEncodings(String[][] rows) {
+        for (int c = 0; c < _rowSize; c++) {
+            if (getType(c) != ColumnType.STRING) {
+                continue;
+            }
+            HashSet<String> distinct = new HashSet<>();
+            int limit = rows.length / ENCODING_THRESHOLD;
+            for (String[] row : rows) {
+                distinct.add(row[c]);
+                if (distinct.size() > limit) {
+                    break;
+                }
+            }
+            if (distinct.size() <= limit) {
+                _columns[c] = new EncodedValueList(new StringDictionary());
+            }
+        }
+    }
+
+    /** Assuming I am empty, make each of my columns represent its
+     *  values in the same way as the corresponding one of COLUMNS,
+     *  sharing its dictionary, if any, so that values copied from
+     *  COLUMNS need no new storage and can be compared by code. */
+    void encodeLike(List<Column> columns) {
+        for (int c = 0; c < _rowSize; c++) {
+            _columns[c] = columns.get(c).getValues().emptyCopy();
+        }
+    }
+
+    /** Assuming I am empty, make COLUMNS my columns.  Each of COLUMNS
+     *  must contain SIZE values, and the rows they form must be
+     *  distinct and already in ascending order. */
+    void loadSorted(ValueList[] columns, int size) {
+        System.arraycopy(columns, 0, _columns, 0, _rowSize);
+        _size = size;
+        _version += 1;
+        indexInOrder();
+    }
+
+    /** Set _index to my rows, which must be distinct and in ascending
+     *  order by row number. */
+    private void indexInOrder() {
+        int[] order = new int[_size];
+        for (int k = 0; k < _size; k++) {
+            order[k] = k;
+        }
+        _index.clear();
+        _index.addAll(new SortedRows(order, 0, _size));
+    }
+
+    /** Return a Table whose columns are titled TITLES, and hold the
+     *  values of the columns of SOURCE numbered COLUMNS in its rows
+     *  ROWS[0 .. SIZE-1], which must form distinct rows in ascending
+     *  order.  The result is a view: it refers to SOURCE's values,
+     *  rather than copying them into new columns, and needs no _index,
+     *  since its rows are in order by row number, so that it occupies
+     *  little more than a copy of ROWS.  It is materialized (given
+     *  columns and an index of its own) when it is first modified, or
+     *  when SOURCE is dropped or replaced (see materializeViews).  A
+     *  view of a view refers directly to the latter's source. */
+    static Table view(List<String> titles, Table source, int[] columns,
+                      int[] rows, int size) {
+        Table view = new Table(titles);
+        int[] viewRows = Arrays.copyOf(rows, size),
+            viewColumns = columns.clone();
+        if (source._viewOf != null) {
+            for (int k = 0; k < size; k++) {
+                viewRows[k] = source._viewRows[viewRows[k]];
+            }
+            for (int c = 0; c < columns.length; c++) {
+                viewColumns[c] = source._viewColumns[columns[c]];
+            }
+            source = source._viewOf;
+        }
+        for (int c = 0; c < columns.length; c++) {
+            view._columns[c] =
+                new ViewValueList(source._columns[viewColumns[c]], viewRows,
+                                  size);
+        }
+        view._size = size;
+        view._viewOf = source;
+        view._viewRows = viewRows;
+        view._viewColumns = viewColumns;
+        synchronized (source._views) {
+            source._views.removeIf(ref -> ref.get() == null);
+            source._views.add(new WeakReference<>(view));
+        }
+        return view;
+    }
+
+    /** If I am a view, give me columns and an index of my own, holding
+     *  copies of the values to which I refer. */
+    private void materialize() {
+        if (_viewOf == null) {
+            return;
+        }
+        for (int c = 0; c < _rowSize; c++) {
+            _columns[c] = ((ViewValueList) _columns[c]).materialize();
+        }
+        indexInOrder();
+        _viewOf = null;
+        _viewRows = null;
+        _viewColumns = null;
+    }
+
+    /** Materialize all the views of me that remain, so that they no
+     *  longer refer to me.  For use when I am dropped or replaced, so
+     *  that views of me do not keep all of me in memory.  (Since my
+     *  rows are only ever added to, my views need not be materialized
+     *  when I am modified.) */
+    void materializeViews() {
+        ArrayList<WeakReference<Table>> views;
+        synchronized (_views) {
+            views = new ArrayList<>(_views);
+            _views.clear();
+        }
+        for (WeakReference<Table> ref : views) {
+            Table view = ref.get();
+            if (view != null) {
+                view.materialize();
+            }
+        }
+    }
+
+    /** Return true iff I am a view of another Table (see view). */
+    boolean isView() {
+        return _viewOf != null;
+    }
+
+    /** Return the numbers of my rows, in order. */
+    Iterable<Integer> rowOrder() {
+        if (_viewOf != null) {
+            int size = _size;
+            return () -> IntStream.range(0, size).iterator();
+        }
+        return Collections.unmodifiableSet(_index);
+    }
+
+    /** Replace each value in VALUES that belongs to one of my string
+     *  columns by its instance in POOL (see StringPool.intern), and
+     *  return VALUES.  Values of numeric columns are left alone, since
+     *  they are not stored as Strings. */
+    String[] intern(String[] values, StringPool pool) {
+        for (int i = 0; i < values.length && i < _rowSize; i++) {
+            if (getType(i) == ColumnType.STRING) {
+                values[i] = pool.intern(values[i]);
+            }
+        }
+        return values;
+    }
+
+    /** Read the contents of the file NAME.db, and return as a Table,
+     *  sharing equal string values within it.  The file may be either
+     *  text or binary (see BinaryFormat).  Format errors in the .db file
+     *  cause a DBException. */
     static Table readTable(String name) {
+        return readTable(name, new StringPool());
+    }
+
+    /** Read the contents of the file NAME.db, as for readTable(NAME),
+     *  using the instances in POOL of its string values. */
+    static Table readTable(String name, StringPool pool) {
+        if (BinaryFormat.isBinary(name + ".db")) {
+            return BinaryFormat.read(name, pool);
+        }
         BufferedReader input;
         Table table;
         input = null;
@@ -139,11 +514,13 @@ class Table {
             if (header == null) {
                 throw error("missing header in DB file");
             }
-            table = new Table(header.split(","));
+            table = parseHeader(header);
+            ArrayList<String[]> rows = new ArrayList<>();
             for (header = input.readLine(); header != null;
                  header = input.readLine()) {
-                table.add(header.split(","));
+                rows.add(table.intern(header.split(","), pool));
             }
+            table.addAll(rows);
         } catch (FileNotFoundException e) {
             throw error("could not find %s.db", name);
         } catch (IOException e) {
@@ -160,28 +537,65 @@ class Table {
         return table;
     }
 
+    /** Return an empty Table whose columns are described by HEADER, the
+     *  first line of a text .db file.  HEADER is a comma-separated list
+     *  of column titles, each of which may be followed by a colon and
+     *  the name of a column type (if omitted, the type is string). */
+    static Table parseHeader(String header) {
+        String[] titles = header.split(",");
+        ColumnType[] types = new ColumnType[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            int colon = titles[i].indexOf(':');
+            if (colon == -1) {
+                types[i] = ColumnType.STRING;
+            } else {
+                types[i] = ColumnType.find(titles[i].substring(colon + 1));
+                if (types[i] == null) {
+                    throw error("unknown column type: %s",
+                                titles[i].substring(colon + 1));
+                }
+                titles[i] = titles[i].substring(0, colon);
+            }
+        }
+        return new Table(titles, types);
+    }
+
+    /** Return the header line of a text .db file holding me: my column
+     *  titles, separated by commas, each followed by a colon and the
+     *  name of its type unless that is string (see parseHeader). */
+    String header() {
+        StringBuilder header = new StringBuilder();
+        for (int i = 0; i < _rowSize; i++) {
+            if (i > 0) {
+                header.append(',');
+            }
+            header.append(_titles[i]);
+            if (getType(i) != ColumnType.STRING) {
+                header.append(':').append(getType(i));
+            }
+        }
+        return header.toString();
+    }
+
     /** Write the contents of TABLE into the file NAME.db. Any I/O errors
      *  cause a DBException. */
     void writeTable(String name) {
-        PrintStream output;
+        Writer output;
         output = null;
         try {
-            String sep = "";
-            output = new PrintStream(name + ".db");
-            for (int i = 0; i < _rowSize; i++) {
-                sep += _titles[i];
-                if (i != _rowSize - 1) {
-                    sep += ",";
-                }
-            }
-            sep += "\n";
-            sep += format("", ",");
-            output.print(sep);
+            output = new BufferedWriter(new FileWriter(name + ".db"));
+            output.write(header());
+            output.write("\n");
+            write(output, "", ",");
         } catch (IOException e) {
             throw error("trouble writing to %s.db", name);
         } finally {
             if (output != null) {
-                output.close();
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    /* Ignore IOException */
+                }
             }
         }
     }
@@ -189,79 +603,166 @@ class Table {
     /** Print my contents on the standard output, separated by spaces
      *  and indented by two spaces. */
     void print() {
-        System.out.print(format("  ", " "));
-    }
-
-    /** Formats the body of the table into a readable String based on
-     *  given header and separator parameters, to be used as a helper
-     *  function for print and writeTable.
-     *
-     *  @return the formatted output
-     *  @param header the header in front of each line
-     *  @param separator the separator between values on each line
-     */
-    String format(String header, String separator) {
-        String s = "";
-        for (int i = 0; i < size(); i++) {
-            s += header;
+        print(System.out);
+    }
+
+    /** Print my contents on OUT, as for print(). */
+    void print(PrintStream out) {
+        Writer output = new BufferedWriter(new OutputStreamWriter(out));
+        try {
+            write(output, "  ", " ");
+            output.flush();
+        } catch (IOException e) {
+            throw error("trouble writing to standard output");
+        }
+    }
+
+    /** Write the body of the table to OUTPUT, one row per line in
+     *  order, starting each line with HEADER and separating values
+     *  with SEPARATOR.  Used as a helper function for print and
+     *  writeTable.  Rows are written as they are visited, so no more
+     *  than OUTPUT's buffer is held in memory at once. */
+    void write(Writer output, String header, String separator)
+        throws IOException {
+        for (int row : rowOrder()) {
+            output.write(header);
             for (int j = 0; j < _rowSize; j++) {
-                s += _columns[j].get(_index.get(i));
+                output.write(_columns[j].get(row));
                 if (j != _rowSize - 1) {
-                    s += separator;
+                    output.write(separator);
                 }
             }
-            s += "\n";
+            output.write("\n");
         }
-        return s;
     }
 
     /** Return a new Table whose columns are COLUMNNAMES, selected from
      *  rows of this table that satisfy CONDITIONS. */
     Table select(List<String> columnNames, List<Condition> conditions) {
-        Table result = new Table(columnNames);
-        ArrayList<Column> columns = new ArrayList<>();
-        for (int c = 0; c < columnNames.size(); c++) {
-            columns.add(new Column(columnNames.get(c), this));
-        }
-        for (int r = 0; r < size(); r++) {
-            if (Condition.test(conditions, r)) {
-                result.add(columns, r);
+        return select(columnNames, conditions, null);
+    }
+
+    /** Return a new Table whose columns are COLUMNNAMES, selected from
+     *  rows of this table that satisfy CONDITIONS.  If POOL is not
+     *  null, and all rows must be scanned, the rows are tested in
+     *  parallel on POOL's threads. */
+    Table select(List<String> columnNames, List<Condition> conditions,
+                 ForkJoinPool pool) {
+        QueryPlanner planner = new QueryPlanner(conditions, this);
+        planner.setPool(pool);
+        return planner.select(columnNames).toTable();
+    }
+
+    /** Return a source of my rows that satisfy CONDITIONS, which refer
+     *  to me alone, storing each into element SLOT of the rows it
+     *  delivers (see RowSource).  If the only one of CONDITIONS to
+     *  which an index applies is an equality, visits only the rows
+     *  that index finds.  If indexes apply to several, or to a range,
+     *  visits the rows in the AND of the bitmaps they find.  Otherwise
+     *  scans all rows, in parallel on POOL's threads if POOL is not
+     *  null and I am large enough. */
+    RowSource rows(List<Condition> conditions, ForkJoinPool pool, int slot) {
+        ArrayList<Condition> indexed = new ArrayList<>(),
+            others = new ArrayList<>();
+        for (Condition cond : conditions) {
+            if (isIndexed(cond)) {
+                indexed.add(cond);
+            } else {
+                others.add(cond);
             }
         }
-        return result;
+        if (indexed.size() == 1 && indexed.get(0).getRelation().equals("=")) {
+            Condition cond = indexed.get(0);
+            List<Integer> candidates =
+                _columnIndexes.get(cond.getColumn1().getColumn())
+                .lookup(cond.getRelation(), cond.getLiteral());
+            return RowSource.of("index scan", candidates, conditions, slot);
+        } else if (!indexed.isEmpty()) {
+            return RowSource.bitmap(indexBitmap(indexed), size(),
+                                    conditions, others, slot);
+        } else if (pool != null && size() >= ParallelFilter.MIN_ROWS) {
+            return RowSource.parallel(pool, conditions, size(), slot);
+        } else {
+            return RowSource.scan(size(), conditions, slot);
+        }
     }
 
-    /** Return a new Table whose columns are COLUMNNAMES, selected
-     *  from pairs of rows from this table and from TABLE2 that match
-     *  on all columns with identical names and satisfy CONDITIONS. */
-    Table select(Table table2, List<String> columnNames,
-                 List<Condition> conditions) {
-        Table result = new Table(columnNames);
-        ArrayList<Column> common1 = new ArrayList<>(),
-                common2 = new ArrayList<>();
-        for (String title : _titles) {
-            if (table2.findColumn(title) != -1) {
-                common1.add(new Column(title, this));
-                common2.add(new Column(title, table2));
+    /** Return a source of my rows that satisfy CONDITIONS, which refer
+     *  to me alone, in ascending order, storing each into element SLOT
+     *  of the rows it delivers. */
+    RowSource orderedRows(List<Condition> conditions, int slot) {
+        return RowSource.of("ordered scan", rowOrder(), conditions,
+                            slot);
+    }
+
+    /** Return true iff an index applies to one of CONDITIONS, so that
+     *  rows(CONDITIONS, ...) need not visit all my rows. */
+    boolean hasIndexFor(List<Condition> conditions) {
+        for (Condition cond : conditions) {
+            if (isIndexed(cond)) {
+                return true;
             }
         }
+        return false;
+    }
 
-        ArrayList<Column> unified = new ArrayList<>();
-        for (String columnName : columnNames) {
-            unified.add(new Column(columnName, this, table2));
+    /** Create an index on the column named COLUMNNAME, so that
+     *  single-table selects with conditions comparing that column to
+     *  a literal need only visit the matching rows.  Does nothing if
+     *  the column is already indexed. */
+    void createIndex(String columnName) {
+        int col = findColumn(columnName);
+        if (col == -1) {
+            throw error("unknown column: %s", columnName);
+        }
+        if (_columnIndexes.containsKey(col)) {
+            return;
+        }
+        ColumnIndex index = new ColumnIndex(getType(col));
+        for (int r = 0; r < size(); r++) {
+            index.add(get(r, col), r);
         }
+        _columnIndexes.put(col, index);
+    }
+
+    /** Return true iff COND compares a column of mine that is indexed
+     *  with a literal, by a relation the index supports. */
+    private boolean isIndexed(Condition cond) {
+        Column col = cond.getColumn1();
+        return cond.getLiteral() != null && col.getTable() == this
+            && _columnIndexes.containsKey(col.getColumn())
+            && ColumnIndex.supports(cond.getRelation());
+    }
 
-        for (int r1 = 0; r1 < this.size(); r1++) {
-            for (int r2 = 0; r2 < table2.size(); r2++) {
-                if (equijoin(common1, common2, r1, r2)
-                        && Condition.test(conditions, r1, r2)) {
-                    result.add(unified, r1, r2);
+    /** Return the bitmap (see Utils) of my rows that satisfy all of
+     *  CONDITIONS, each of which isIndexed: the AND of the bitmaps of
+     *  the rows their indexes find. */
+    private long[] indexBitmap(List<Condition> conditions) {
+        long[] result = null;
+        for (Condition cond : conditions) {
+            long[] bits = new long[words(size())];
+            _columnIndexes.get(cond.getColumn1().getColumn())
+                .mark(cond.getRelation(), cond.getLiteral(), bits);
+            if (result == null) {
+                result = bits;
+            } else {
+                for (int w = 0; w < bits.length; w++) {
+                    result[w] &= bits[w];
                 }
             }
         }
         return result;
     }
 
+    /** Return a new Table whose columns are COLUMNNAMES, selected
+     *  from pairs of rows from this table and from TABLE2 that match
+     *  on all columns with identical names and satisfy CONDITIONS. */
+    Table select(Table table2, List<String> columnNames,
+                 List<Condition> conditions) {
+        return new QueryPlanner(conditions, this, table2)
+            .select(columnNames).toTable();
+    }
+
     /** Return <0, 0, or >0 depending on whether the row formed from
      *  the elements _columns[0].get(K0), _columns[1].get(K0), ...
      *  is less than, equal to, or greater than that formed from elememts
@@ -269,7 +770,7 @@ class Table {
      *  the _index. */
     private int compareRows(int k0, int k1) {
         for (int i = 0; i < _rowSize; i += 1) {
-            int c = _columns[i].get(k0).compareTo(_columns[i].get(k1));
+            int c = _columns[i].compare(k0, k1);
             if (c != 0) {
                 return c;
             }
@@ -277,33 +778,159 @@ class Table {
         return 0;
     }
 
-    /** Return true if the columns COMMON1 from ROW1 and COMMON2 from
-     *  ROW2 all have identical values.  Assumes that COMMON1 and
-     *  COMMON2 have the same number of elements and the same names,
-     *  that the columns in COMMON1 apply to this table, those in
-     *  COMMON2 to another, and that ROW1 and ROW2 are indices, respectively,
-     *  into those tables. */
-    private static boolean equijoin(List<Column> common1, List<Column> common2,
-                                    int row1, int row2) {
-        for (int i = 0; i < common1.size(); i++) {
-            if (!common1.get(i).getFrom(row1).equals
-                    (common2.get(i).getFrom(row2))) {
-                return false;
+    /** Return <0, 0, or >0 depending on whether the values of my first
+     *  N columns in my row K0 are lexicographically less than, equal
+     *  to, or greater than those of the first N columns of OTHER in its
+     *  row K1, comparing as for compareRows(K0, K1).  Where the types
+     *  of those columns agree, my rows and those of OTHER are in the
+     *  same order on them. */
+    int compareRows(int k0, Table other, int k1, int n) {
+        for (int i = 0; i < n; i += 1) {
+            int c = _columns[i].compare(k0, other._columns[i], k1);
+            if (c != 0) {
+                return c;
             }
         }
-        return true;
+        return 0;
     }
 
-    /** A class that is essentially ArrayList<String>.  For technical reasons,
-     *  we need to encapsulate ArrayList<String> like this because the
-     *  underlying design of Java does not properly distinguish between
-     *  different kinds of ArrayList at runtime (e.g., if you have a
-     *  variable of type Object that was created from an ArrayList, there is
-     *  no way to determine in general whether it is an ArrayList<String>,
-     *  ArrayList<Integer>, or ArrayList<Object>).  This leads to annoying
-     *  compiler warnings.  The trick of defining a new type avoids this
-     *  issue. */
-    private static class ValueList extends ArrayList<String> {
+    /** Return <0, 0, or >0 depending on whether my row number K is
+     *  lexicographically less than, equal to, or greater than the row
+     *  of values VALUES. */
+    private int compareRow(int k, String[] values) {
+        for (int i = 0; i < _rowSize; i += 1) {
+            int c = _columns[i].compareTo(k, values[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return <0, 0, or >0 depending on whether the row of values V0
+     *  is lexicographically less than, equal to, or greater than the
+     *  row V1, comparing each value according to its column's type.
+     *  Assumes V0 and V1 are rows of canonical values for me. */
+    private int compareValues(String[] v0, String[] v1) {
+        for (int i = 0; i < v0.length; i += 1) {
+            int c = getType(i).compare(v0[i], v1[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** A sequence of row numbers in ascending order, viewed as an
+     *  unmodifiable SortedSet under _order.  Used to refill _index, once
+     *  cleared, with rows already in order: given a SortedSet with the
+     *  same comparator, TreeSet may build itself in linear time without
+     *  comparing rows, and otherwise adds them one at a time as usual. */
+    private class SortedRows extends AbstractSet<Integer>
+        implements SortedSet<Integer> {
+
+        /** The rows ROWS[FROM], ..., ROWS[TO-1], which must be in
+         *  ascending order. */
+        SortedRows(int[] rows, int from, int to) {
+            _rows = rows;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<Integer>() {
+                @Override
+                public boolean hasNext() {
+                    return _next < _to;
+                }
+
+                @Override
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    _next += 1;
+                    return _rows[_next - 1];
+                }
+
+                /** Position of the next row to deliver. */
+                private int _next = _from;
+            };
+        }
+
+        @Override
+        public int size() {
+            return _to - _from;
+        }
+
+        @Override
+        public boolean contains(Object row) {
+            if (!(row instanceof Integer)) {
+                return false;
+            }
+            int k = bound((Integer) row);
+            return k < _to && _order.compare(_rows[k], (Integer) row) == 0;
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return _order;
+        }
+
+        @Override
+        public Integer first() {
+            if (_from == _to) {
+                throw new NoSuchElementException();
+            }
+            return _rows[_from];
+        }
+
+        @Override
+        public Integer last() {
+            if (_from == _to) {
+                throw new NoSuchElementException();
+            }
+            return _rows[_to - 1];
+        }
+
+        @Override
+        public SortedSet<Integer> subSet(Integer from, Integer to) {
+            if (_order.compare(from, to) > 0) {
+                throw new IllegalArgumentException("from > to");
+            }
+            return new SortedRows(_rows, bound(from), bound(to));
+        }
+
+        @Override
+        public SortedSet<Integer> headSet(Integer to) {
+            return new SortedRows(_rows, _from, bound(to));
+        }
+
+        @Override
+        public SortedSet<Integer> tailSet(Integer from) {
+            return new SortedRows(_rows, bound(from), _to);
+        }
+
+        /** Return the position in _rows of my first row that is not
+         *  less than ROW under _order, or _to if there is none. */
+        private int bound(int row) {
+            int lo = _from, hi = _to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (_order.compare(_rows[mid], row) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Contains my rows, at positions _from .. _to-1. */
+        private final int[] _rows;
+        /** Bounds of my rows in _rows. */
+        private final int _from, _to;
     }
 
     /** My column titles. */
@@ -311,22 +938,55 @@ class Table {
     /** My columns. Row i consists of _columns[k].get(i) for all k. */
     private final ValueList[] _columns;
 
+    /** Orders row numbers by the contents of the rows they denote. */
+    private final Comparator<Integer> _order = this::compareRows;
+
     /** Rows in the database are supposed to be sorted. To do so, we
-     *  have a list whose kth element is the index in each column
-     *  of the value of that column for the kth row in lexicographic order.
-     *  That is, the first row (smallest in lexicographic order)
-     *  is at position _index.get(0) in _columns[0], _columns[1], ...
-     *  and the kth row in lexicographic order in at position _index.get(k).
-     *  When a new row is inserted, insert its index at the appropriate
-     *  place in this list.
+     *  keep a set of row numbers ordered by the contents of the rows
+     *  they denote (as given by compareRows).  That is, iterating
+     *  through _index yields the position in _columns[0], _columns[1],
+     *  ... of the first row in lexicographic order, then of the
+     *  second, and so on.  Since equal rows compare equal, the set
+     *  also detects duplicates.  Being a balanced tree, it lets us
+     *  insert a new row (or find that it is a duplicate) in time
+     *  logarithmic in the size of the table.
      *  (Alternatively, we could simply keep each column in the proper order
      *  so that we would not need _index.  But that would mean that inserting
      *  a new row would require rearranging _rowSize lists (each list in
      *  _columns) rather than just one. */
-    private final ArrayList<Integer> _index = new ArrayList<>();
+    private final TreeSet<Integer> _index = new TreeSet<>(_order);
+
+    /** If I am a view (see view), the Table whose values I refer to;
+     *  otherwise null. */
+    private Table _viewOf;
+    /** If I am a view, my row k is row _viewRows[k] of _viewOf. */
+    private int[] _viewRows;
+    /** If I am a view, my column c is column _viewColumns[c] of
+     *  _viewOf. */
+    private int[] _viewColumns;
+    /** The views of me that may remain. */
+    private final ArrayList<WeakReference<Table>> _views =
+        new ArrayList<>();
+
+    /** Secondary indexes on my columns, keyed by column number. */
+    private final HashMap<Integer, ColumnIndex> _columnIndexes =
+        new HashMap<>();
+
+    /** Minimum average number of times each value in a column must
+     *  appear for the column to be dictionary-encoded on loading. */
+    private static final int ENCODING_THRESHOLD = 2;
+
+    /** Numbers of distinct values in my columns, or -1 where not yet
+     *  counted, as reported by distinctValues.  Null if no statistics
+     *  have been gathered. */
+    private int[] _distinct;
+    /** My size when _distinct was last reset. */
+    private int _statisticsSize;
 
     /** My number of rows (redundant, but convenient). */
     private int _size;
+    /** My version (see version()). */
+    private long _version;
     /** My number of columns (redundant, but convenient). */
     private final int _rowSize;
 }
@@ -0,0 +1,435 @@
+package db61b;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static db61b.Utils.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/** A write-ahead log of the changes made to a table stored in a .db
+ *  file, so that they may be made durable at a cost proportional to
+ *  the changes, rather than by rewriting the file.  The log of the
+ *  table stored in NAME.db is the file NAME.log, to which a record is
+ *  appended for each insert statement that adds rows to the table
+ *  (holding those rows) and for each create statement that replaces it
+ *  (holding the new table's header and rows).  A record consists of
+ *  the length of its body and the CRC-32 checksum of its body, as
+ *  4-byte integers, followed by the body, so that a record torn by a
+ *  crash while it was being written is recognized and discarded.
+ *
+ *  Records are appended to a buffer in memory, and made durable by
+ *  commit, which writes the buffer to the file and forces it to the
+ *  disk.  Commits are grouped: while one thread is forcing the log,
+ *  others that commit wait, and the first of them to proceed afterwards
+ *  forces all the records appended in the meantime at once, so that
+ *  there is one fsync per group of commits rather than one per record.
+ *
+ *  A checkpoint writes the table into NAME.db (by way of a temporary
+ *  file that then replaces it, so that NAME.db is always complete) and
+ *  empties the log.  Loading NAME.db replays NAME.log (see replay).
+ *  Since inserting a row already present has no effect, and a create
+ *  record replaces the whole table, replaying records whose changes
+ *  NAME.db already contains is harmless, so that a crash between
+ *  replacing NAME.db and emptying the log loses nothing.
+ *  @author Justin Yang */
+class TableLog {
+
+    /** A log of the changes to the table stored in NAME.db, which is in
+     *  binary format iff BINARY.  Appends to NAME.log, if it exists,
+     *  after discarding any incomplete record at its end. */
+    TableLog(String name, boolean binary) {
+        _name = name;
+        _binary = binary;
+        _pending = new ByteArrayOutputStream();
+        try {
+            _channel = FileChannel.open(Paths.get(name + ".log"), CREATE,
+                                        READ, WRITE);
+            _size = validLength(_channel);
+            _channel.truncate(_size);
+            _channel.position(_size);
+        } catch (IOException excp) {
+            throw error("could not open %s.log", name);
+        }
+        _base = new File(name + ".db").length();
+    }
+
+    /** Return the result of applying the changes recorded in NAME.log,
+     *  if it exists, to TABLE, which was read from NAME.db (or is null,
+     *  if there is no NAME.db), using the instances in POOL of string
+     *  values.  The result is TABLE itself unless the log records its
+     *  replacement.  Replay stops at the first incomplete record. */
+    static Table replay(String name, Table table, StringPool pool) {
+        Path file = Paths.get(name + ".log");
+        if (!Files.exists(file)) {
+            return table;
+        }
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("%s.log is too large to replay", name);
+            }
+            ByteBuffer log =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (int end = recordEnd(log); end != -1; end = recordEnd(log)) {
+                ByteBuffer body = log.duplicate();
+                body.limit(end).position(log.position() + HEADER_BYTES);
+                table = apply(body, table, pool);
+                log.position(end);
+            }
+        } catch (IOException excp) {
+            throw error("problem reading from %s.log", name);
+        } catch (BufferUnderflowException | IllegalArgumentException excp) {
+            throw error("corrupted log file %s.log", name);
+        }
+        return table;
+    }
+
+    /** Return true iff NAME.log records changes not yet stored into
+     *  NAME.db. */
+    static boolean hasChanges(String name) {
+        return new File(name + ".log").length() > 0;
+    }
+
+    /** Write TABLE into NAME.db, in binary format iff BINARY, replacing
+     *  its previous contents only once the new contents are safely on
+     *  disk, and delete NAME.log, which NAME.db then supersedes. */
+    static void store(Table table, String name, boolean binary) {
+        write(table, name, binary);
+        try {
+            Files.deleteIfExists(Paths.get(name + ".log"));
+        } catch (IOException excp) {
+            throw error("could not delete %s.log", name);
+        }
+    }
+
+    /** Append a record of the insertion of ROWS, each an array of column
+     *  values, and return the number by which to commit it. */
+    long insert(List<String[]> rows) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        try {
+            body.writeByte(INSERTION);
+            body.writeInt(rows.size());
+            for (String[] row : rows) {
+                for (String value : row) {
+                    BinaryFormat.writeString(body, value);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.log", _name);
+        }
+        return append(bytes.toByteArray());
+    }
+
+    /** Append a record of the replacement of my table by TABLE, and
+     *  return the number by which to commit it. */
+    long create(Table table) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        try {
+            body.writeByte(REPLACEMENT);
+            BinaryFormat.writeString(body, table.header());
+            body.writeInt(table.size());
+            for (int row : table.rowOrder()) {
+                for (int c = 0; c < table.columns(); c++) {
+                    BinaryFormat.writeString(body, table.get(row, c));
+                }
+            }
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.log", _name);
+        }
+        return append(bytes.toByteArray());
+    }
+
+    /** Append a record whose body is BODY to _pending, and return its
+     *  number. */
+    private synchronized long append(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(body.length).putInt((int) crc.getValue());
+        _pending.write(header.array(), 0, HEADER_BYTES);
+        _pending.write(body, 0, body.length);
+        _size += HEADER_BYTES + body.length;
+        _appended += 1;
+        return _appended;
+    }
+
+    /** Return the number of the last record appended. */
+    synchronized long appended() {
+        return _appended;
+    }
+
+    /** Make the record numbered RECORD, and all before it, durable,
+     *  returning once they are on disk.  If another thread is forcing
+     *  the log, waits for it, and then forces every record appended
+     *  since, including those of other waiting threads, at once. */
+    void commit(long record) {
+        byte[] data;
+        long last;
+        synchronized (this) {
+            while (_forcing && _durable < record) {
+                awaitForce();
+            }
+            if (_durable >= record) {
+                return;
+            }
+            if (_channel == null) {
+                throw error("%s.log is closed", _name);
+            }
+            _forcing = true;
+            data = _pending.toByteArray();
+            _pending.reset();
+            last = _appended;
+        }
+        boolean forced;
+        forced = false;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                _channel.write(buffer);
+            }
+            _channel.force(false);
+            forced = true;
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.log", _name);
+        } finally {
+            synchronized (this) {
+                _forcing = false;
+                if (forced) {
+                    _durable = last;
+                    _forces += 1;
+                } else {
+                    closeChannel();
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /** Return true iff my log has grown large enough, relative to the
+     *  .db file it amends, that it is time for a checkpoint.  Since the
+     *  log must grow by at least the size of the .db file between
+     *  checkpoints, the cost of writing that file is spread over
+     *  changes of at least the same size. */
+    synchronized boolean needsCheckpoint() {
+        return _size > Math.max(MIN_CHECKPOINT_BYTES, _base);
+    }
+
+    /** Write TABLE, which must reflect all the records appended, into
+     *  my .db file, in binary format iff BINARY, and empty the log,
+     *  whose records are thereby made durable. */
+    synchronized void checkpoint(Table table, boolean binary) {
+        while (_forcing) {
+            awaitForce();
+        }
+        if (_channel == null) {
+            throw error("%s.log is closed", _name);
+        }
+        write(table, _name, binary);
+        try {
+            _channel.truncate(0);
+            _channel.position(0);
+            _channel.force(true);
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.log", _name);
+        }
+        _binary = binary;
+        _pending.reset();
+        _durable = _appended;
+        _size = 0;
+        _base = new File(_name + ".db").length();
+        _checkpoints += 1;
+    }
+
+    /** Return true iff my .db file is in binary format. */
+    synchronized boolean isBinary() {
+        return _binary;
+    }
+
+    /** Return the size of my log, in bytes, including the records not
+     *  yet committed. */
+    synchronized long size() {
+        return _size;
+    }
+
+    /** Return the number of times I have been forced to disk. */
+    synchronized long forces() {
+        return _forces;
+    }
+
+    /** Return the number of checkpoints I have made. */
+    synchronized long checkpoints() {
+        return _checkpoints;
+    }
+
+    /** Commit all my records, and close my file. */
+    synchronized void close() {
+        if (_channel == null) {
+            return;
+        }
+        if (!_forcing && _durable < _appended) {
+            commit(_appended);
+        }
+        closeChannel();
+    }
+
+    /** Close my file, without writing anything further to it. */
+    private synchronized void closeChannel() {
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore IOException */
+            }
+            _channel = null;
+        }
+    }
+
+    /** Wait to be notified of the end of a force of the log, which is
+     *  in progress.  Must be called while holding my lock. */
+    private void awaitForce() {
+        try {
+            wait();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted while writing %s.log", _name);
+        }
+    }
+
+    /** Write TABLE into a temporary file, in binary format iff BINARY,
+     *  force it to disk, and rename it to NAME.db. */
+    private static void write(Table table, String name, boolean binary) {
+        String temp = name + TEMP_SUFFIX;
+        if (binary) {
+            BinaryFormat.write(table, temp);
+        } else {
+            table.writeTable(temp);
+        }
+        Path written = Paths.get(temp + ".db");
+        try (FileChannel channel = FileChannel.open(written, WRITE)) {
+            channel.force(true);
+        } catch (IOException excp) {
+            throw error("trouble writing to %s.db", name);
+        }
+        try {
+            Files.move(written, Paths.get(name + ".db"), REPLACE_EXISTING,
+                       ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not replace %s.db", name);
+        }
+    }
+
+    /** Return the result of applying the record whose body is BODY to
+     *  TABLE, using the instances in POOL of string values. */
+    private static Table apply(ByteBuffer body, Table table,
+                               StringPool pool) {
+        byte kind = body.get();
+        if (kind == REPLACEMENT) {
+            table = Table.parseHeader(BinaryFormat.readString(body));
+        } else if (kind != INSERTION || table == null) {
+            throw new IllegalArgumentException("bad record kind");
+        }
+        int rows = body.getInt(), cols = table.columns();
+        if (rows < 0) {
+            throw new IllegalArgumentException("bad row count");
+        }
+        ArrayList<String[]> values = new ArrayList<>();
+        for (int r = 0; r < rows; r++) {
+            String[] row = new String[cols];
+            for (int c = 0; c < cols; c++) {
+                row[c] = BinaryFormat.readString(body);
+            }
+            values.add(table.intern(row, pool));
+        }
+        if (body.hasRemaining()) {
+            throw new IllegalArgumentException("bad record length");
+        }
+        table.addAll(values);
+        return table;
+    }
+
+    /** Return the end of the complete record starting at the position
+     *  of LOG, or -1 if there is none (because LOG ends before the
+     *  record does, or the record's checksum is wrong). */
+    private static int recordEnd(ByteBuffer log) {
+        int start = log.position();
+        if (log.remaining() < HEADER_BYTES) {
+            return -1;
+        }
+        int length = log.getInt(start), checksum = log.getInt(start + 4);
+        if (length < 0 || length > log.remaining() - HEADER_BYTES) {
+            return -1;
+        }
+        ByteBuffer body = log.duplicate();
+        body.limit(start + HEADER_BYTES + length)
+            .position(start + HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+        return start + HEADER_BYTES + length;
+    }
+
+    /** Return the length of the complete records at the start of the
+     *  log open on CHANNEL. */
+    private static long validLength(FileChannel channel) throws IOException {
+        if (channel.size() == 0) {
+            return 0;
+        } else if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException("log too large");
+        }
+        ByteBuffer log =
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        for (int end = recordEnd(log); end != -1; end = recordEnd(log)) {
+            log.position(end);
+        }
+        return log.position();
+    }
+
+    /** Kinds of record. */
+    private static final byte INSERTION = 1, REPLACEMENT = 2;
+    /** Size of the header of a record: its length and checksum. */
+    private static final int HEADER_BYTES = 8;
+    /** Size below which a log is never checkpointed. */
+    static final long MIN_CHECKPOINT_BYTES = 1L << 20;
+    /** Suffix of the name of the temporary file written by a
+     *  checkpoint (followed by .db). */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Name of the table, whose files are _name.db and _name.log. */
+    private final String _name;
+    /** True iff _name.db is in binary format. */
+    private boolean _binary;
+    /** The open log file, or null if I am closed. */
+    private FileChannel _channel;
+    /** Records appended but not yet written to _channel. */
+    private final ByteArrayOutputStream _pending;
+    /** Size of the log, in bytes, including _pending. */
+    private long _size;
+    /** Size of _name.db as of the last checkpoint, in bytes. */
+    private long _base;
+    /** Number of the last record appended. */
+    private long _appended;
+    /** Number of the last record known to be on disk. */
+    private long _durable;
+    /** True iff some thread is writing and forcing records. */
+    private boolean _forcing;
+    /** Numbers of forces and checkpoints made. */
+    private long _forces, _checkpoints;
+}
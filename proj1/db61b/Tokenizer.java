@@ -1,50 +1,64 @@
 package db61b;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
 
 import static db61b.Utils.*;
 
-/** Represents a stream of db61b tokens read from a given Scanner.
+/** Represents a stream of db61b tokens read from a given Reader.  Tokens
+ *  are recognized by a hand-written scanner working directly on a
+ *  character buffer, so that very large command scripts are consumed in
+ *  a single pass without per-token regular-expression matching.  The
+ *  keywords and punctuation sought by the parser (see KEYWORDS) are
+ *  recognized as they are scanned and given small integer codes, so
+ *  that testing the next token against one of them (see nextIs)
+ *  compares integers rather than strings, and so that they share one
+ *  String each.
  *  @author P. N. Hilfinger. */
 class Tokenizer {
 
-    /** Text of regular expressions that represent literals (possibly
-     *  unterminated), identifiers, and comments (possibly
-     *  unterminated). */
-    private static final String
-        LITERAL_TEXT = "'(?:[^,'\n\r]*)'?",
-        IDENTIFIER_TEXT = "[\\p{Alpha}_]\\w*",
-        COMMENT_TEXT = "(?:/\\*.*?\\*/|/\\*.*)";
-    /** Matches potential tokens, including valid or unterminated
-     *  literals, valid or unterminated comments, identifiers,
-     *  relation symbols (=, <, <=, >=, and !=), end-of-line
-     *  sequences, or other single characters.  The pattern matches a
-     *  prefix of any string. */
-    private static final Pattern
-        TOKEN_PATN = mkPatn("(?s)[<>!]?=|%s|%s|%s|\r?\n|\\S",
-                            LITERAL_TEXT, IDENTIFIER_TEXT, COMMENT_TEXT);
-
-    /** Patterns matching specific kinds of token.  These are intended
-     *  to be used with methods such as CommandInterpreter.name. */
-    static final Pattern
-        IDENTIFIER = mkPatn(IDENTIFIER_TEXT),
-        LITERAL = mkPatn("'.*"),
-        RELATION = mkPatn("[<>!]?=|[<>]");
-
-    /** A Tokenizer that reads tokens from S, and prompts on PROMPTER,
+    /** The kinds of token.  Keywords are not distinguished from other
+     *  identifiers, so that (for example) a table may be named "select". */
+    enum Kind {
+        /** A letter or underscore followed by letters, digits, and
+         *  underscores. */
+        IDENTIFIER,
+        /** A single-quoted literal, including its quotes. */
+        LITERAL,
+        /** An unsigned integer numeral. */
+        NUMBER,
+        /** One of =, <, >, <=, >=, and !=. */
+        RELATION,
+        /** Any other single character. */
+        PUNCTUATION,
+        /** The end of the input ("*EOF*"). */
+        EOF;
+    }
+
+    /** Kinds of token.  These are intended to be used with methods such as
+     *  CommandInterpreter.name. */
+    static final Kind
+        IDENTIFIER = Kind.IDENTIFIER,
+        LITERAL = Kind.LITERAL,
+        NUMBER = Kind.NUMBER,
+        RELATION = Kind.RELATION;
+
+    /** A Tokenizer that reads tokens from INPUT, and prompts on PROMPTER,
      *  if it is non-null. */
-    Tokenizer(Scanner s, PrintStream prompter) {
-        _input = s;
+    Tokenizer(Reader input, PrintStream prompter) {
+        _input = input;
+        _chars = new char[INITIAL_CHARS];
+        _mark = -1;
         _buffer = new ArrayList<>();
+        _kinds = new ArrayList<>();
+        _codes = new int[INITIAL_TOKENS];
         _prompter = prompter;
         _continued = false;
         _shouldPrompt = true;
         _k = 0;
-        _mat = Pattern.compile(".").matcher("");
     }
 
     /** Read the next potential token and add it to _buffer.  Filters
@@ -54,28 +68,240 @@ class Tokenizer {
     private void readToken() {
         while (true) {
             prompt();
-            String token = _input.findWithinHorizon(TOKEN_PATN, 0);
-            if (token == null) {
-                token = "*EOF*";
-            } else if (token.startsWith("'")) {
-                if (token.length() == 1 || !token.endsWith("'")) {
-                    throw error("unterminated literal constant");
-                }
-            } else if (token.startsWith("/*")) {
-                if (token.length() < 4 || !token.endsWith("*/")) {
-                    throw error("unterminated comment");
-                }
-                continue;
-            } else if (token.endsWith("\n")) {
+            int c = skipBlanks();
+            if (c == -1) {
+                addToken(KEYWORDS[EOF_CODE], EOF_CODE, Kind.EOF);
+                return;
+            } else if (c == '\n') {
+                _pos += 1;
                 _shouldPrompt = true;
                 continue;
+            } else if (c == '/' && lookahead(1) == '*') {
+                skipComment();
+                continue;
             }
-            _buffer.add(token);
-            _continued = !token.equals(";");
+            _mark = _pos;
+            Kind kind;
+            if (isIdentifierStart(c)) {
+                do {
+                    _pos += 1;
+                } while (isIdentifierPart(lookahead(0)));
+                kind = Kind.IDENTIFIER;
+            } else if (isDigit(c)) {
+                do {
+                    _pos += 1;
+                } while (isDigit(lookahead(0)));
+                kind = Kind.NUMBER;
+            } else if (c == '\'') {
+                scanLiteral();
+                kind = Kind.LITERAL;
+            } else if (c == '=') {
+                _pos += 1;
+                kind = Kind.RELATION;
+            } else if (c == '<' || c == '>' || c == '!') {
+                _pos += 1;
+                if (lookahead(0) == '=') {
+                    _pos += 1;
+                    kind = Kind.RELATION;
+                } else {
+                    kind = c == '!' ? Kind.PUNCTUATION : Kind.RELATION;
+                }
+            } else {
+                _pos += 1;
+                if (Character.isHighSurrogate((char) c)
+                    && Character.isLowSurrogate((char) lookahead(0))) {
+                    _pos += 1;
+                }
+                kind = Kind.PUNCTUATION;
+            }
+            int code = kind == Kind.LITERAL ? 0 : code(_chars, _mark, _pos);
+            addToken(code == 0 ? tokenText() : KEYWORDS[code], code, kind);
+            _mark = -1;
             return;
         }
     }
 
+    /** Append TOKEN, of kind KIND and with code CODE (see code), to
+     *  _buffer. */
+    private void addToken(String token, int code, Kind kind) {
+        int n = _buffer.size();
+        if (n == _codes.length) {
+            _codes = Arrays.copyOf(_codes, 2 * n);
+        }
+        _codes[n] = code;
+        _buffer.add(token);
+        _kinds.add(kind);
+        _continued = code != SEMICOLON_CODE;
+    }
+
+    /** Return the code of the token in CHARS[START .. END-1]: its index
+     *  in KEYWORDS, or 0 if it is not a keyword. */
+    private static int code(char[] chars, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i += 1) {
+            h = 31 * h + chars[i];
+        }
+        for (int i = h & CODE_MASK; CODE_TABLE[i] != 0;
+             i = (i + 1) & CODE_MASK) {
+            if (matches(KEYWORDS[CODE_TABLE[i]], chars, start, end)) {
+                return CODE_TABLE[i];
+            }
+        }
+        return 0;
+    }
+
+    /** Return the code of the token TEXT (see code(char[], int, int)). */
+    private static int code(String text) {
+        for (int i = text.hashCode() & CODE_MASK; CODE_TABLE[i] != 0;
+             i = (i + 1) & CODE_MASK) {
+            String keyword = KEYWORDS[CODE_TABLE[i]];
+            if (keyword == text || keyword.equals(text)) {
+                return CODE_TABLE[i];
+            }
+        }
+        return 0;
+    }
+
+    /** Return true iff KEYWORD consists of CHARS[START .. END-1]. */
+    private static boolean matches(String keyword, char[] chars,
+                                   int start, int end) {
+        if (keyword.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i += 1) {
+            if (keyword.charAt(i - start) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the text of the token starting at _mark and ending just
+     *  before _pos. */
+    private String tokenText() {
+        int len = _pos - _mark;
+        char c = _chars[_mark];
+        String text;
+        if (len == 1 && c < SINGLE_CHARS.length) {
+            text = SINGLE_CHARS[c];
+        } else {
+            text = new String(_chars, _mark, len);
+        }
+        return text;
+    }
+
+    /** Skip the remainder of a literal whose opening quote is at _pos.
+     *  Throws an error if the literal is not terminated before a comma,
+     *  end of line, or end of input, leaving the offending character
+     *  unread. */
+    private void scanLiteral() {
+        _pos += 1;
+        while (true) {
+            int c = lookahead(0);
+            if (c == '\'') {
+                _pos += 1;
+                return;
+            } else if (c == -1 || c == ',' || c == '\n' || c == '\r') {
+                _mark = -1;
+                throw error("unterminated literal constant");
+            }
+            _pos += 1;
+        }
+    }
+
+    /** Skip a comment starting at _pos, which may span several lines.
+     *  Throws an error if it is not terminated before the end of
+     *  input. */
+    private void skipComment() {
+        _pos += 2;
+        while (true) {
+            int c = lookahead(0);
+            if (c == -1) {
+                throw error("unterminated comment");
+            }
+            _pos += 1;
+            if (c == '*' && lookahead(0) == '/') {
+                _pos += 1;
+                return;
+            }
+        }
+    }
+
+    /** Skip whitespace other than newlines, and return the next
+     *  character, or -1 at the end of input. */
+    private int skipBlanks() {
+        while (true) {
+            int c = lookahead(0);
+            switch (c) {
+            case ' ': case '\t': case '\r': case '\f': case '\u000B':
+                _pos += 1;
+                break;
+            default:
+                return c;
+            }
+        }
+    }
+
+    /** Return the character K positions past the current one, or -1 if
+     *  the input ends before then. */
+    private int lookahead(int k) {
+        while (_pos + k >= _end) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return _chars[_pos + k];
+    }
+
+    /** Read more characters into _chars, discarding those already
+     *  consumed other than the token in progress (starting at _mark).
+     *  Return false iff the input is exhausted.  As with Scanner, an
+     *  IOException is treated as the end of input. */
+    private boolean fill() {
+        if (_eof) {
+            return false;
+        }
+        int keep = _mark >= 0 ? _mark : _pos;
+        if (keep > 0) {
+            System.arraycopy(_chars, keep, _chars, 0, _end - keep);
+            _end -= keep;
+            _pos -= keep;
+            if (_mark >= 0) {
+                _mark = 0;
+            }
+        }
+        if (_end == _chars.length) {
+            _chars = Arrays.copyOf(_chars, 2 * _chars.length);
+        }
+        int n;
+        try {
+            n = _input.read(_chars, _end, _chars.length - _end);
+        } catch (IOException excp) {
+            n = -1;
+        }
+        if (n < 0) {
+            _eof = true;
+            return false;
+        }
+        _end += n;
+        return true;
+    }
+
+    /** Return true iff C may start an identifier. */
+    private static boolean isIdentifierStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /** Return true iff C may continue an identifier. */
+    private static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    /** Return true iff C is a decimal digit. */
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
     /** Print an appropriate prompt, if there is a prompter: either ">"
      *  when expecting the start of a new command, or "..."
      *  otherwise. */
@@ -97,15 +323,11 @@ class Tokenizer {
         _continued = true;
     }
 
-    /** Read and return the next token, if it matches P.  Otherwise throw
-     *  DBException */
-    String next(Pattern p) {
-        if (!nextIs(p)) {
-            if (nextIs("*EOF*")) {
-                throw error("unexpected end of input");
-            } else {
-                throw error("unexpected token: '%s'", peek());
-            }
+    /** Read and return the next token, if it is of kind KIND.  Otherwise
+     *  throw DBException */
+    String next(Kind kind) {
+        if (!nextIs(kind)) {
+            unexpected();
         }
         return next();
     }
@@ -114,19 +336,25 @@ class Tokenizer {
      *  DBException */
     String next(String p) {
         if (!nextIs(p)) {
-            if (nextIs("*EOF*")) {
-                throw error("unexpected end of input");
-            } else {
-                throw error("unexpected token: '%s'", peek());
-            }
+            unexpected();
         }
         return next();
     }
 
-    /** Read the next token, if it matches P, and return true.  Otherwise
-     *  return false.  Still throws DBException on detecting lexical errors. */
-    boolean nextIf(Pattern p) {
-        if (nextIs(p)) {
+    /** Throw a DBException reporting the next token as unexpected. */
+    private void unexpected() {
+        if (nextIs(Kind.EOF)) {
+            throw error("unexpected end of input");
+        } else {
+            throw error("unexpected token: '%s'", peek());
+        }
+    }
+
+    /** Read the next token, if it is of kind KIND, and return true.
+     *  Otherwise return false.  Still throws DBException on detecting
+     *  lexical errors. */
+    boolean nextIf(Kind kind) {
+        if (nextIs(kind)) {
             next();
             return true;
         }
@@ -143,19 +371,19 @@ class Tokenizer {
         return false;
     }
 
-
-    /** Return true iff the next token matches P.  Throws DBException on
-     *  encountering a lexical error. */
-    boolean nextIs(Pattern p) {
-        String token = peek();
-        return _mat.usePattern(p).reset(token).matches();
+    /** Return true iff the next token is of kind KIND.  Throws DBException
+     *  on encountering a lexical error. */
+    boolean nextIs(Kind kind) {
+        peek();
+        return _kinds.get(_k) == kind;
     }
 
     /** Return true iff the next token equals P.  Throws DBException on
      *  encountering a lexical error. */
     boolean nextIs(String p) {
         String token = peek();
-        return token.equals(p);
+        int code = code(p);
+        return code != 0 ? _codes[_k] == code : token.equals(p);
     }
 
     /** Return and read past the next token. */
@@ -175,6 +403,35 @@ class Tokenizer {
         return _buffer.get(_k);
     }
 
+    /** Read ahead, without changing my position, through the next
+     *  semicolon (or the end of input), so that the rest of the current
+     *  statement may then be parsed without waiting for input.  Throws
+     *  DBException on encountering a lexical error. */
+    void readStatement() {
+        for (int k = _k; true; k += 1) {
+            while (k >= _buffer.size()) {
+                readToken();
+            }
+            if (_kinds.get(k) == Kind.EOF || _codes[k] == SEMICOLON_CODE) {
+                return;
+            }
+        }
+    }
+
+    /** Return my current position in the token stream, for use with
+     *  text. */
+    int position() {
+        return _k;
+    }
+
+    /** Return the tokens read since position START, which must have
+     *  been returned by position() since the last flush, separated by
+     *  single blanks.  Tokens that differ only in the spacing or
+     *  comments between them thus yield the same text. */
+    String text(int start) {
+        return String.join(" ", _buffer.subList(start, _k));
+    }
+
     /** Return THIS to its position just after the last flush or flushToSemi
      *  operation(or its initial position if there have been no flush...
      *  operations).  */
@@ -184,7 +441,9 @@ class Tokenizer {
 
     /** Set the rewind point to the current position. */
     void flush() {
+        System.arraycopy(_codes, _k, _codes, 0, _buffer.size() - _k);
         _buffer.subList(0, _k).clear();
+        _kinds.subList(0, _k).clear();
         _k = 0;
     }
 
@@ -208,13 +467,71 @@ class Tokenizer {
         newCommand();
     }
 
+    /** Initial size of the character buffer. */
+    private static final int INITIAL_CHARS = 1 << 13;
+
+    /** Initial size of _codes. */
+    private static final int INITIAL_TOKENS = 64;
+
+    /** The tokens given codes, each being coded by its index.  Index 0
+     *  is unused. */
+    private static final String[] KEYWORDS = {
+        null, ";", ",", "(", ")", "*", "*EOF*",
+        "and", "as", "binary", "by", "cache", "create", "drop", "exit",
+        "explain", "from", "group", "index", "insert", "into", "load",
+        "memory", "off", "on", "parallelism", "print", "quit", "select",
+        "set", "show", "store", "table", "timing", "values", "wal",
+        "where",
+    };
+
+    /** The codes of ";" and "*EOF*". */
+    private static final int SEMICOLON_CODE = 1, EOF_CODE = 6;
+
+    /** Mask giving the index in CODE_TABLE of a hash code. */
+    private static final int CODE_MASK = 127;
+
+    /** Open-addressed hash table of the codes of KEYWORDS, indexed by
+     *  the hash codes of their Strings (0 marking an empty slot). */
+    private static final int[] CODE_TABLE = new int[CODE_MASK + 1];
+
+    static {
+        for (int code = 1; code < KEYWORDS.length; code += 1) {
+            int i = KEYWORDS[code].hashCode() & CODE_MASK;
+            while (CODE_TABLE[i] != 0) {
+                i = (i + 1) & CODE_MASK;
+            }
+            CODE_TABLE[i] = code;
+        }
+    }
+
+    /** Shared token strings for the single ASCII characters. */
+    private static final String[] SINGLE_CHARS = new String[128];
+
+    static {
+        for (int c = 0; c < SINGLE_CHARS.length; c += 1) {
+            SINGLE_CHARS[c] = String.valueOf((char) c);
+        }
+    }
 
-    /** Matcher used for pattern matching. */
-    private Matcher _mat;
     /** The character input source. */
-    private Scanner _input;
+    private Reader _input;
+    /** Characters read from _input.  Those in [_pos, _end) are not yet
+     *  consumed. */
+    private char[] _chars;
+    /** Position of the next unconsumed character in _chars. */
+    private int _pos;
+    /** Number of valid characters in _chars. */
+    private int _end;
+    /** Start of the token being scanned in _chars, or -1 if none. */
+    private int _mark;
+    /** True iff _input has been exhausted. */
+    private boolean _eof;
     /** All tokens read since the last flush or beginning of input. */
     private ArrayList<String> _buffer;
+    /** The kinds of the tokens in _buffer. */
+    private ArrayList<Kind> _kinds;
+    /** The codes of the tokens in _buffer (see code). */
+    private int[] _codes;
     /** Output for prompts.  Null if prompts not used. */
     private PrintStream _prompter;
     /** False iff the next token is expected to start a command. */
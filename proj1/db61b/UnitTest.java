@@ -2,8 +2,21 @@ package db61b;
 
 import org.junit.Test;
 import ucb.junit.textui;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
 
 /** The suite of all JUnit tests for the qirkat package.
  *  @author P. N. Hilfinger
@@ -69,6 +82,702 @@ public class UnitTest {
     }
 
     @Test
+    public void testHashJoin() {
+        Table students = Table.readTable("testing/students");
+        Table enrolled = Table.readTable("testing/enrolled");
+        ArrayList<String> columnNames = new ArrayList<>(
+                Arrays.asList("SID", "Lastname", "CCN"));
+        ArrayList<Condition> none = new ArrayList<>();
+        Table joined1 = students.select(enrolled, columnNames, none);
+        Table joined2 = enrolled.select(students, columnNames, none);
+        assertEquals(enrolled.size(), joined1.size());
+        assertEquals(enrolled.size(), joined2.size());
+
+        Table schedule = Table.readTable("testing/schedule");
+        ArrayList<String> crossNames = new ArrayList<>(
+                Arrays.asList("SID", "Room"));
+        Table cross = students.select(schedule, crossNames, none);
+        assertEquals(students.size() * 5, cross.size());
+    }
+
+    @Test
+    public void testPlannerPushdown() throws IOException {
+        Table students = Table.readTable("testing/students");
+        Table enrolled = Table.readTable("testing/enrolled");
+        ArrayList<String> columnNames = new ArrayList<>(
+                Arrays.asList("Lastname", "CCN", "Grade"));
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("SID", students, enrolled),
+                        ">=", "104"),
+                new Condition(new Column("Grade", students, enrolled),
+                        "=", "A-"),
+                new Condition(new Column("Lastname", students, enrolled),
+                        ">", new Column("Grade", students, enrolled))));
+        Table planned = new QueryPlanner(conditions, students, enrolled)
+                .select(columnNames).toTable();
+        Table direct = students.select(enrolled, columnNames, conditions);
+        assertEquals(3, direct.size());
+        assertEquals(contents(direct), contents(planned));
+    }
+
+    @Test
+    public void testDictionaryEncoding() {
+        Table table = Table.readTable("testing/students");
+        StringDictionary sem =
+            table.getValues(table.findColumn("SemEnter")).getDictionary();
+        assertNotNull(sem);
+        assertEquals(2, sem.size());
+        assertNull(table.getValues(table.findColumn("SID")).getDictionary());
+
+        ArrayList<String> columnNames = new ArrayList<>(
+                Arrays.asList("Lastname", "SemEnter"));
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("SemEnter", table), "=", "F"),
+                new Condition(new Column("Major", table), "!=", "Math")));
+        Table selected = table.select(columnNames, conditions);
+        assertEquals(3, selected.size());
+        assertSame(sem, selected.getValues(1).getDictionary());
+    }
+
+    @Test
+    public void testParallelSelect() throws IOException {
+        Table table = new Table(new String[] { "Key", "Parity" });
+        for (int k = 0; k < 3 * ParallelFilter.MIN_ROWS; k++) {
+            table.add(new String[] { Integer.toString(k),
+                                     k % 2 == 0 ? "even" : "odd" });
+        }
+        ArrayList<String> columnNames = new ArrayList<>(
+                Arrays.asList("Key"));
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("Parity", table), "=", "odd"),
+                new Condition(new Column("Key", table), ">", "2")));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Table parallel = table.select(columnNames, conditions, pool);
+        pool.shutdown();
+        Table sequential = table.select(columnNames, conditions);
+        assertEquals(sequential.size(), parallel.size());
+        assertEquals(contents(sequential), contents(parallel));
+    }
+
+    @Test
+    public void testParallelAggregate() throws IOException {
+        Table table = new Table(new String[] { "Key", "Parity" });
+        for (int k = 0; k < 3 * ParallelFilter.MIN_ROWS; k++) {
+            table.add(new String[] { Integer.toString(k),
+                                     k % 2 == 0 ? "even" : "odd" });
+        }
+        List<Aggregation.Item> items = Arrays.asList(
+            new Aggregation.Item("Parity"),
+            new Aggregation.Item(Aggregation.Function.COUNT, "*"),
+            new Aggregation.Item(Aggregation.Function.MAX, "Key"),
+            new Aggregation.Item(Aggregation.Function.SUM, "Key"));
+        List<String> groupBy = Arrays.asList("Parity");
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("Key", table), ">", "2")));
+        QueryPlanner planner = new QueryPlanner(conditions, table);
+        Table sequential =
+            planner.aggregate(new Aggregation(items, groupBy, table))
+            .toTable();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        planner.setPool(pool);
+        Table parallel =
+            planner.aggregate(new Aggregation(items, groupBy, table))
+            .toTable();
+        pool.shutdown();
+        assertEquals(2, sequential.size());
+        assertEquals(contents(sequential), contents(parallel));
+    }
+
+    @Test
+    public void testEmptyGroups() {
+        Table table = new Table(new String[] { "K", "V", "W" },
+                                new ColumnType[] { ColumnType.STRING,
+                                                   ColumnType.INT,
+                                                   ColumnType.DOUBLE });
+        table.add(new String[] { "a", "1", "2.5" });
+        List<Aggregation.Item> items = Arrays.asList(
+            new Aggregation.Item("K"),
+            new Aggregation.Item(Aggregation.Function.COUNT, "*"),
+            new Aggregation.Item(Aggregation.Function.AVG, "V"),
+            new Aggregation.Item(Aggregation.Function.MAX, "V"),
+            new Aggregation.Item(Aggregation.Function.SUM, "W"));
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("K", table), "=", "none")));
+        Table result = new QueryPlanner(conditions, table)
+            .aggregate(new Aggregation(items, Arrays.asList("K"), table))
+            .toTable();
+        assertEquals(0, result.size());
+        assertEquals(ColumnType.STRING, result.getType(0));
+        assertEquals(ColumnType.INT, result.getType(1));
+        assertEquals(ColumnType.DOUBLE, result.getType(2));
+        assertEquals(ColumnType.INT, result.getType(3));
+        assertEquals(ColumnType.DOUBLE, result.getType(4));
+    }
+
+    @Test
+    public void testNegativeZero() {
+        Table table = new Table(new String[] { "X" },
+                                new ColumnType[] { ColumnType.DOUBLE });
+        assertTrue(table.add(new String[] { "-0.0" }));
+        assertFalse(table.add(new String[] { "0" }));
+        assertEquals(1, table.size());
+        assertEquals("0.0", table.get(0, 0));
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("X", table), "=", "-0.0")));
+        assertEquals(1, new QueryPlanner(conditions, table)
+                     .select(Arrays.asList("X")).toTable().size());
+    }
+
+    @Test
+    public void testUntypedAccess() {
+        ValueList strings = ColumnType.STRING.newList();
+        strings.add("1");
+        ValueList doubles = ColumnType.DOUBLE.newList();
+        doubles.add("1");
+        try {
+            strings.getDouble(0);
+            fail("string column read as double");
+        } catch (DBException excp) {
+            assertEquals("string column has no numeric values",
+                         excp.getMessage());
+        }
+        try {
+            doubles.getLong(0);
+            fail("double column read as int");
+        } catch (DBException excp) {
+            assertEquals("double column has no int values",
+                         excp.getMessage());
+        }
+        try {
+            strings.getCode(0);
+            fail("plain column read as codes");
+        } catch (DBException excp) {
+            assertEquals("string column is not dictionary-encoded",
+                         excp.getMessage());
+        }
+    }
+
+    @Test(expected = DBException.class)
+    public void testMixedNumericJoin() {
+        Table ints = new Table(new String[] { "K" },
+                               new ColumnType[] { ColumnType.INT });
+        ints.add(new String[] { "1" });
+        Table doubles = new Table(new String[] { "K" },
+                                  new ColumnType[] { ColumnType.DOUBLE });
+        doubles.add(new String[] { "1" });
+        new QueryPlanner(new ArrayList<Condition>(), ints, doubles);
+    }
+
+    @Test
+    public void testMemoryUsage() {
+        Table table = Table.readTable("testing/enrolled");
+        long before = table.memoryUsage();
+        assertTrue(before > 0);
+        table.add(new String[] { "107", "21001", "A" });
+        assertTrue(table.memoryUsage() > before);
+
+        Database db = new Database();
+        db.put("enrolled", table);
+        db.put("students", Table.readTable("testing/students"));
+        assertEquals(Arrays.asList("enrolled", "students"), db.names());
+        assertSame(table, db.remove("enrolled"));
+        assertNull(db.get("enrolled"));
+        assertNull(db.remove("enrolled"));
+    }
+
+    @Test
+    public void testBatchInsert() throws IOException {
+        Table batched = new Table(new String[] { "A", "B" });
+        Table single = new Table(new String[] { "A", "B" });
+        for (int k = 0; k < 50; k += 2) {
+            String[] row = { Integer.toString(k % 7), Integer.toString(k) };
+            batched.add(row);
+            single.add(row);
+        }
+        batched.createIndex("A");
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int k = 0; k < 200; k += 3) {
+            String[] row = { Integer.toString(k % 7), Integer.toString(k) };
+            rows.add(row);
+            rows.add(row.clone());
+            single.add(row);
+        }
+        int before = batched.size();
+        assertEquals(single.size() - before, batched.addAll(rows));
+        assertEquals(contents(single), contents(batched));
+
+        ArrayList<String> columnNames = new ArrayList<>(Arrays.asList("B"));
+        ArrayList<Condition> conditions1 = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("A", single), "=", "3")));
+        ArrayList<Condition> conditions2 = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("A", batched), "=", "3")));
+        assertEquals(contents(single.select(columnNames, conditions1)),
+                     contents(batched.select(columnNames, conditions2)));
+    }
+
+    @Test
+    public void testDistinctValues() {
+        Table table = Table.readTable("testing/enrolled");
+        int sid = table.findColumn("SID");
+        int before = table.distinctValues(sid);
+        assertTrue(before > 1 && before < table.size());
+        table.add(new String[] { "999", "21001", "A" });
+        assertEquals(before, table.distinctValues(sid));
+        int n = table.size();
+        for (int k = 0; k <= n; k++) {
+            table.add(new String[] { "9" + k, "21001", "A" });
+        }
+        assertEquals(before + 1 + (n + 1), table.distinctValues(sid));
+    }
+
+    @Test
+    public void testLazySelect() {
+        Table students = Table.readTable("testing/students");
+        Table enrolled = Table.readTable("testing/enrolled");
+        List<List<String>> selections = Arrays.asList(
+            Arrays.asList("SID", "Lastname"),
+            Arrays.asList("SemEnter"),
+            Arrays.asList("Major", "SID"));
+        for (List<String> columnNames : selections) {
+            Table table = new QueryPlanner(new ArrayList<Condition>(),
+                                           students)
+                .select(columnNames).toTable();
+            Selection lazy = new QueryPlanner(new ArrayList<Condition>(),
+                                              students)
+                .select(columnNames);
+            assertEquals(printed(table::print), printed(lazy::print));
+        }
+        List<String> columnNames = Arrays.asList("Lastname", "Grade");
+        Table table = students.select(enrolled, columnNames,
+                                      new ArrayList<Condition>());
+        Selection lazy = new QueryPlanner(new ArrayList<Condition>(),
+                                          students, enrolled)
+            .select(columnNames);
+        assertEquals(printed(table::print), printed(lazy::print));
+    }
+
+    @Test
+    public void testMergeJoin() throws IOException {
+        Table left = new Table(new String[] { "K", "X" },
+                               new ColumnType[] { ColumnType.INT,
+                                                  ColumnType.STRING });
+        Table right = new Table(new String[] { "K", "Y" },
+                                new ColumnType[] { ColumnType.INT,
+                                                   ColumnType.STRING });
+        Random random = new Random(61);
+        for (int i = 0; i < 300; i += 1) {
+            left.add(new String[] { Integer.toString(random.nextInt(40)),
+                                    "x" + random.nextInt(5) });
+            right.add(new String[] { Integer.toString(random.nextInt(40)),
+                                     "y" + random.nextInt(5) });
+        }
+        Table expected = new Table(new String[] { "K", "X", "Y" },
+                                   new ColumnType[] { ColumnType.INT,
+                                                      ColumnType.STRING,
+                                                      ColumnType.STRING });
+        for (int r0 = 0; r0 < left.size(); r0 += 1) {
+            for (int r1 = 0; r1 < right.size(); r1 += 1) {
+                if (left.get(r0, 0).equals(right.get(r1, 0))
+                    && !left.get(r0, 1).equals("x0")) {
+                    expected.add(new String[] { left.get(r0, 0),
+                                                left.get(r0, 1),
+                                                right.get(r1, 1) });
+                }
+            }
+        }
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("X", left, right), "!=", "x0")));
+        Selection merged = new QueryPlanner(conditions, left, right)
+            .select(Arrays.asList("K", "X", "Y"));
+        assertTrue(merged.profile().explain().contains("merge join on K"));
+        assertEquals(contents(expected), contents(merged.toTable()));
+    }
+
+    @Test
+    public void testResultCache() {
+        Table students = Table.readTable("testing/students");
+        Table[] from = { students };
+        Table result = students.select(Arrays.asList("SID"),
+                                       new ArrayList<Condition>());
+        result.add(new String[] { "998" });
+        long bytes = result.memoryUsage();
+        ResultCache cache = new ResultCache(3 * bytes);
+        cache.put("select SID from students", from, result);
+        assertTrue(cache.get("select SID from students", from) == result);
+        assertEquals(null, cache.get("select SID from enrolled", from));
+
+        cache.put("q1", from, result);
+        cache.get("select SID from students", from);
+        cache.put("q2", from, result);
+        assertEquals(2, cache.size());
+        assertEquals(null, cache.get("q1", from));
+        assertTrue(cache.memoryUsage() <= 3 * bytes);
+
+        students.add(new String[] { "999", "Newman", "Ann", "F", "2004",
+                                    "EECS" });
+        assertEquals(null, cache.get("select SID from students", from));
+        cache.put("q3", from, result);
+        cache.remove(students);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.memoryUsage());
+    }
+
+    @Test
+    public void testUncachedJoin() throws IOException {
+        Table students = Table.readTable("testing/students");
+        Table enrolled = Table.readTable("testing/enrolled");
+        List<String> columnNames = Arrays.asList("Lastname", "CCN");
+        ArrayList<Condition> none = new ArrayList<>();
+        String expected = printed(new QueryPlanner(none, students, enrolled)
+                                  .select(columnNames)::print);
+        Selection join =
+            new QueryPlanner(none, students, enrolled).select(columnNames);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertNull(join.print(new PrintStream(output), 100));
+        assertEquals(expected, output.toString());
+        join = new QueryPlanner(none, students, enrolled).select(columnNames);
+        Table kept = join.print(new PrintStream(new ByteArrayOutputStream()),
+                                1 << 20);
+        assertEquals(expected, printed(kept::print));
+
+        Database db = new Database();
+        db.put("students", students);
+        db.put("enrolled", enrolled);
+        db.cache().setBudget(100);
+        output = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(output);
+        CommandInterpreter interpreter = new CommandInterpreter(
+            new StringReader("select Lastname, CCN from students, enrolled;"),
+            null, out, db);
+        interpreter.statement();
+        interpreter.close();
+        out.flush();
+        assertEquals("Search results:\n" + expected, output.toString());
+        assertEquals(0, db.cache().size());
+    }
+
+    @Test
+    public void testProfile() {
+        Table students = Table.readTable("testing/students");
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("Major", students), "=", "EECS")));
+        QueryPlanner planner = new QueryPlanner(conditions, students);
+        planner.setNames("students");
+        Selection selection = planner.select(Arrays.asList("Firstname"));
+        Profile profile = selection.profile();
+        assertEquals("  project Firstname\n"
+                     + "    sort\n"
+                     + "      scan students where Major = 'EECS'\n",
+                     profile.explain());
+        profile.setTimed(true);
+        assertEquals(3, selection.toTable().size());
+        assertEquals(3, profile.scannedRows());
+        assertEquals(3, profile.emittedRows());
+        assertTrue(profile.report().contains("scan students"));
+    }
+
+    @Test
+    public void testTokenizer() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            script.append("/* ").append(i).append(" */ ('v").append(i)
+                .append("' <= 12)\n");
+        }
+        Tokenizer input = new Tokenizer(
+            new StringReader(script.toString()), null);
+        for (int i = 0; i < 5000; i += 1) {
+            input.next("(");
+            assertEquals("'v" + i + "'", input.next(Tokenizer.LITERAL));
+            assertEquals("<=", input.next(Tokenizer.RELATION));
+            assertEquals("12", input.next(Tokenizer.NUMBER));
+            input.next(")");
+            input.flush();
+        }
+        assertEquals("*EOF*", input.next());
+    }
+
+    @Test
+    public void testKeywords() {
+        Tokenizer input = new Tokenizer(
+            new StringReader("select selected from 'from' Select x;"), null);
+        assertTrue(input.nextIf("select"));
+        assertFalse(input.nextIs("select"));
+        assertEquals("selected", input.next("selected"));
+        assertSame("from", input.next("from"));
+        assertFalse(input.nextIs("from"));
+        assertEquals("'from'", input.next(Tokenizer.LITERAL));
+        assertFalse(input.nextIs("select"));
+        assertEquals("Select", input.next());
+        assertTrue(input.nextIs("x"));
+        input.readStatement();
+        input.next("x");
+        input.next(";");
+        assertTrue(input.nextIf("*EOF*"));
+    }
+
+    @Test
+    public void testTableLog() throws IOException {
+        Table table = new Table(new String[] { "K", "V" },
+                                new ColumnType[] { ColumnType.INT,
+                                                   ColumnType.STRING });
+        table.add(new String[] { "1", "one" });
+        TableLog.store(table, "logTest", false);
+        TableLog log = new TableLog("logTest", false);
+        List<String[]> rows1 = Arrays.<String[]>asList(
+                new String[] { "3", "three" }, new String[] { "2", "two" });
+        List<String[]> rows2 = Arrays.<String[]>asList(
+                new String[] { "4", "four" });
+        table.addAll(rows1);
+        log.insert(rows1);
+        table.addAll(rows2);
+        log.commit(log.insert(rows2));
+        assertEquals(1, log.forces());
+        log.close();
+
+        long size = new File("logTest.log").length();
+        try (FileOutputStream torn =
+             new FileOutputStream("logTest.log", true)) {
+            torn.write(new byte[] { 0, 0, 0, 9, 1, 2 });
+        }
+        StringPool pool = new StringPool();
+        Table replayed = TableLog.replay("logTest",
+                                         Table.readTable("logTest"), pool);
+        assertEquals(contents(table), contents(replayed));
+        log = new TableLog("logTest", false);
+        assertEquals(size, log.size());
+
+        Table other = new Table(new String[] { "X" },
+                                new ColumnType[] { ColumnType.STRING });
+        other.add(new String[] { "x" });
+        log.commit(log.create(other));
+        replayed = TableLog.replay("logTest", Table.readTable("logTest"),
+                                   pool);
+        assertEquals("X", replayed.getTitle(0));
+        assertEquals(contents(other), contents(replayed));
+
+        log.checkpoint(other, true);
+        assertEquals(0, new File("logTest.log").length());
+        assertEquals(contents(other),
+                     contents(Table.readTable("logTest")));
+        log.close();
+        new File("logTest.db").delete();
+        new File("logTest.log").delete();
+    }
+
+    @Test
+    public void testCreateLogged() throws IOException {
+        Table table = new Table(new String[] { "K", "V" },
+                                new ColumnType[] { ColumnType.INT,
+                                                   ColumnType.STRING });
+        table.add(new String[] { "1", "one" });
+        Database db = new Database();
+        db.setLogging(true);
+        db.put("logCreate", table);
+        db.insert("logCreate", Arrays.<String[]>asList(
+                new String[] { "2", "two" }));
+        db.commit();
+        assertTrue(new File("logCreate.log").length() > 0);
+        db.close();
+
+        Database reopened = new Database();
+        Table loaded = reopened.load("logCreate");
+        assertEquals(contents(table), contents(loaded));
+        assertTrue(new File("logCreate.db").exists());
+        assertFalse(new File("logCreate.log").length() > 0);
+        reopened.close();
+        assertEquals(contents(table),
+                     contents(new Database().load("logCreate")));
+        new File("logCreate.db").delete();
+        new File("logCreate.log").delete();
+    }
+
+    @Test
+    public void testStringPool() {
+        StringPool pool = new StringPool(2);
+        String a = pool.intern(new String("a"));
+        assertSame(a, pool.intern(new String("a")));
+        assertSame(a, pool.find(new String("a")));
+        String b = new String("b"), c = new String("c");
+        assertSame(b, pool.intern(b));
+        assertSame(c, pool.intern(c));
+        assertNotSame(c, pool.intern(new String("c")));
+        assertEquals(2, pool.size());
+
+        pool = new StringPool();
+        Table students = Table.readTable("testing/students", pool);
+        Table enrolled = Table.readTable("testing/enrolled", pool);
+        int sid = students.findColumn("SID"),
+            lastname = students.findColumn("Lastname");
+        assertSame(students.get(0, sid),
+                   enrolled.get(0, enrolled.findColumn("SID")));
+        assertSame(students.get(0, lastname),
+                   Table.readTable("testing/students", pool)
+                   .get(0, lastname));
+    }
+
+    @Test
+    public void testView() throws IOException {
+        Table table = new Table(new String[] { "Key", "Parity" });
+        for (int k = 0; k < 1000; k++) {
+            table.add(new String[] { Integer.toString(k),
+                                     k % 2 == 0 ? "even" : "odd" });
+        }
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("Parity", table), "=", "odd")));
+        Table view = table.select(Arrays.asList("Parity", "Key"),
+                                  conditions);
+        assertTrue(view.isView());
+        assertEquals(500, view.size());
+        assertTrue(view.memoryUsage() < table.memoryUsage() / 10);
+        Table keys = view.select(Arrays.asList("Key"),
+                                 new ArrayList<Condition>());
+        assertTrue(keys.isView());
+        String viewed = contents(view), keyed = contents(keys);
+        assertTrue(viewed.startsWith("odd,1\nodd,101\n"));
+
+        table.add(new String[] { "1001", "odd" });
+        assertEquals(viewed, contents(view));
+        view.add(new String[] { "odd", "2001" });
+        assertFalse(view.isView());
+        assertEquals(501, view.size());
+        assertTrue(contents(view).contains("odd,199\nodd,2001\nodd,201\n"));
+
+        Table copied = Selection.of(keys, "cached result").toTable();
+        assertFalse(copied.isView());
+        assertEquals(keyed, contents(copied));
+        Table empty = table.select(Arrays.asList("Key"),
+                                   new ArrayList<>(Arrays.asList(
+                new Condition(new Column("Parity", table), "=", "none"))));
+        assertTrue(empty.isView());
+        assertEquals(2, empty.addAll(Arrays.<String[]>asList(
+                new String[] { "7" }, new String[] { "5" })));
+        assertFalse(empty.isView());
+        assertEquals("5\n7\n", contents(empty));
+
+        Database db = new Database();
+        db.put("t", table);
+        db.remove("t");
+        assertFalse(keys.isView());
+        assertEquals(keyed, contents(keys));
+    }
+
+    @Test
+    public void testBitmapFilter() throws IOException {
+        String[] titles = { "N", "D", "S" };
+        Table table = new Table(titles,
+                                new ColumnType[] { ColumnType.INT,
+                                                   ColumnType.DOUBLE,
+                                                   ColumnType.STRING });
+        Random random = new Random(25);
+        ArrayList<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 10000; i += 1) {
+            rows.add(new String[] { Integer.toString(random.nextInt(1000)),
+                                    Double.toString(random.nextInt(100)
+                                                    / 4.0),
+                                    "s" + random.nextInt(8) });
+        }
+        table.addAll(rows);
+        assertNotNull(table.getValues(2).getDictionary());
+        ArrayList<Condition> conditions = new ArrayList<>(Arrays.asList(
+                new Condition(new Column("N", table), ">=", "100"),
+                new Condition(new Column("N", table), "!=", "500"),
+                new Condition(new Column("D", table), "<", "20.5"),
+                new Condition(new Column("S", table), "!=", "s3"),
+                new Condition(new Column("S", table), ">", "s1")));
+        Table expected = new Table(titles,
+                                   new ColumnType[] { ColumnType.INT,
+                                                      ColumnType.DOUBLE,
+                                                      ColumnType.STRING });
+        int[] row = new int[1];
+        for (row[0] = 0; row[0] < table.size(); row[0] += 1) {
+            if (Condition.test(conditions, row)) {
+                expected.add(new String[] { table.get(row[0], 0),
+                                            table.get(row[0], 1),
+                                            table.get(row[0], 2) });
+            }
+        }
+        List<String> columnNames = Arrays.asList(titles);
+        assertEquals(contents(expected),
+                     contents(table.select(columnNames, conditions)));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        assertEquals(contents(expected),
+                     contents(table.select(columnNames, conditions, pool)));
+        pool.shutdown();
+
+        Table view = table.select(columnNames, new ArrayList<Condition>());
+        assertTrue(view.isView());
+        List<Condition> onView = Arrays.asList(
+                new Condition(new Column("N", view), ">=", "100"),
+                new Condition(new Column("D", view), "<", "20.5"),
+                new Condition(new Column("S", view), ">", "s1"));
+        long[] bits = new long[Utils.words(view.size())];
+        Utils.setAll(bits, view.size());
+        Condition.filter(onView, bits, 0, view.size());
+        for (row[0] = 0; row[0] < view.size(); row[0] += 1) {
+            assertEquals(Condition.test(onView, row),
+                         (bits[row[0] >>> 6] >>> row[0] & 1) != 0);
+        }
+
+        table.createIndex("N");
+        table.createIndex("S");
+        Selection indexed = new QueryPlanner(conditions, table)
+            .select(columnNames);
+        assertTrue(indexed.profile().explain().contains("bitmap index scan"));
+        assertEquals(contents(expected), contents(indexed.toTable()));
+    }
+
+    @Test
+    public void testServer() throws Exception {
+        Server server = new Server(new Database(), 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException excp) {
+                /* Ignore IOException */
+            }
+        });
+        serving.start();
+        assertEquals("DB61B System.  Version 2.0.\n> > > ",
+                     session(server, "create table nums (N int);\n"
+                             + "insert into nums values ('1'), ('3'), "
+                             + "('2');\n"));
+        String[] results = new String[4];
+        Thread[] clients = new Thread[results.length];
+        for (int i = 0; i < clients.length; i++) {
+            int k = i;
+            clients[i] = new Thread(() -> {
+                try {
+                    results[k] = session(server,
+                                         "select N from nums where N > '1';"
+                                         + "\n");
+                } catch (IOException excp) {
+                    results[k] = excp.toString();
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        for (String result : results) {
+            assertEquals("DB61B System.  Version 2.0.\n"
+                         + "> Search results:\n  2\n  3\n> ", result);
+        }
+        server.close();
+        serving.join();
+    }
+
+    /** Return the output of a session on SERVER whose input is
+     *  SCRIPT. */
+    private static String session(Server server, String script)
+        throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Client.run("localhost", server.port(),
+                   new ByteArrayInputStream(script.getBytes()), output);
+        return output.toString();
+    }
+
+    @Test(expected = DBException.class)
     public void testException() {
         System.out.println("testException\n");
         Table table = Table.readTable("testing/students");
@@ -82,11 +791,30 @@ public class UnitTest {
         System.out.println();
     }
 
+    /** Return the rows of TABLE, in order, as a single String. */
+    private static String contents(Table table) throws IOException {
+        StringWriter output = new StringWriter();
+        table.write(output, "", ",");
+        return output.toString();
+    }
+
+    /** Return what PRINT writes to the standard output. */
+    private static String printed(Runnable print) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output));
+        try {
+            print.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        return output.toString();
+    }
 
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses();
+        System.exit(textui.runClasses(UnitTest.class));
     }
 
 }
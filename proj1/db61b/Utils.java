@@ -1,5 +1,6 @@
 package db61b;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 /** Various utilities used by other sources.
@@ -25,6 +26,50 @@ class Utils {
         return new DBException(format(s, args));
     }
 
+    /* Rough sizes, in bytes, of common heap objects on a 64-bit JVM with
+     * compressed references, used to estimate the memory used by tables.
+     * They are estimates only, and ignore sharing of objects between
+     * data structures. */
+
+    /** Size of a reference. */
+    static final int REFERENCE_BYTES = 4;
+    /** Size of a boxed Integer. */
+    static final int BOXED_INT_BYTES = 16;
+    /** Size of an entry in a TreeMap (and hence TreeSet). */
+    static final int TREE_ENTRY_BYTES = 40;
+    /** Size of an entry in a HashMap, including its bucket slot. */
+    static final int HASH_ENTRY_BYTES = 36;
+    /** Size of an ArrayList, not counting its elements array. */
+    static final int LIST_BYTES = 24;
+    /** Size of an object header (and of an array header). */
+    static final int HEADER_BYTES = 16;
+
+    /* A bitmap is an array of longs representing a set of consecutive
+     * rows of a table, LOW .. HIGH-1: bit k % 64 of element k / 64 is
+     * set iff row LOW + k is in the set.  The bits beyond HIGH-1 in its
+     * last word are clear. */
+
+    /** Return the number of words in a bitmap of N rows. */
+    static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    /** Set the first words(N) elements of the bitmap BITS to represent
+     *  all of its N rows. */
+    static void setAll(long[] bits, int n) {
+        int full = n >>> 6;
+        Arrays.fill(bits, 0, full, -1L);
+        if ((n & 63) != 0) {
+            bits[full] = -1L >>> (64 - (n & 63));
+        }
+    }
+
+    /** Return the approximate number of bytes of heap occupied by S,
+     *  assuming that it holds one byte per character. */
+    static long stringBytes(String s) {
+        return 24 + HEADER_BYTES + ((s.length() + 7) & ~7);
+    }
+
 }
 
 
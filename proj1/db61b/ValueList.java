@@ -0,0 +1,111 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** The values in one column of a Table, indexed by row number.  Rows
+ *  are only ever added at the end, or removed from the end.
+ *  @author Justin Yang */
+abstract class ValueList {
+
+    /** Return the value in row ROW.  Throws IndexOutOfBoundsException
+     *  unless 0 <= ROW < size(). */
+    abstract String get(int row);
+
+    /** Append VALUE as a new last row. */
+    abstract void add(String value);
+
+    /** Remove my last row. */
+    abstract void removeLast();
+
+    /** Return my number of rows. */
+    abstract int size();
+
+    /** Return the type of my values. */
+    ColumnType getType() {
+        return ColumnType.STRING;
+    }
+
+    /** Return the value in row ROW as a number.  Throws a DBException
+     *  unless getType() is numeric. */
+    double getDouble(int row) {
+        throw error("%s column has no numeric values", getType());
+    }
+
+    /** Return the value in row ROW as a long.  Throws a DBException
+     *  unless getType() is INT. */
+    long getLong(int row) {
+        throw error("%s column has no int values", getType());
+    }
+
+    /** Return the dictionary that encodes my values, or null if they
+     *  are not dictionary-encoded. */
+    StringDictionary getDictionary() {
+        return null;
+    }
+
+    /** Return the dictionary code of the value in row ROW.  Throws a
+     *  DBException if getDictionary() is null. */
+    int getCode(int row) {
+        throw error("%s column is not dictionary-encoded", getType());
+    }
+
+    /** Return the array in which I hold my values, as longs, if I hold
+     *  them so, and otherwise null.  Its first size() elements are my
+     *  values, in order.  For the evaluation of conditions over many
+     *  rows at once (see Condition.filter): it must not be modified,
+     *  and is valid only until a value is added. */
+    long[] longs() {
+        return null;
+    }
+
+    /** Return the array in which I hold my values, as doubles, if I
+     *  hold them so, and otherwise null, as for longs(). */
+    double[] doubles() {
+        return null;
+    }
+
+    /** Return the array in which I hold the dictionary codes of my
+     *  values, if I hold them so, and otherwise null, as for longs(). */
+    int[] codes() {
+        return null;
+    }
+
+    /** Return <0, 0, or >0 depending on whether the value in row ROW0
+     *  is less than, equal to, or greater than that in row ROW1. */
+    int compare(int row0, int row1) {
+        return compareStrings(get(row0), get(row1));
+    }
+
+    /** Return the approximate number of bytes of heap that I occupy,
+     *  including the Strings or dictionary I refer to. */
+    abstract long memoryUsage();
+
+    /** Return <0, 0, or >0 depending on whether the value in my row
+     *  ROW0 is less than, equal to, or greater than that in row ROW1 of
+     *  OTHER.  Numeric values are compared as numbers if both lists are
+     *  numeric, and as Strings otherwise. */
+    int compare(int row0, ValueList other, int row1) {
+        if (getType().isNumeric() && other.getType().isNumeric()) {
+            return Double.compare(getDouble(row0), other.getDouble(row1));
+        }
+        return compareStrings(get(row0), other.get(row1));
+    }
+
+    /** Return <0, 0, or >0 depending on whether the value in row ROW is
+     *  less than, equal to, or greater than VALUE, which must be a valid
+     *  value of my type. */
+    int compareTo(int row, String value) {
+        return compareStrings(get(row), value);
+    }
+
+    /** Return S0.compareTo(S1), without comparing their characters if
+     *  they are the same instance (as equal values shared through a
+     *  StringPool are). */
+    static int compareStrings(String s0, String s1) {
+        return s0 == s1 ? 0 : s0.compareTo(s1);
+    }
+
+    /** Return an empty ValueList that represents its values the same
+     *  way I do, sharing my dictionary, if any. */
+    abstract ValueList emptyCopy();
+}
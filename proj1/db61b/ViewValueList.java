@@ -0,0 +1,122 @@
+package db61b;
+
+import static db61b.Utils.*;
+
+/** A ValueList whose values are those of selected rows of another
+ *  ValueList, its source: its row k holds the value in row ROWS[k] of
+ *  the source.  It refers to the source's values, rather than copying
+ *  them, and takes the source's representation (type and dictionary).
+ *  Since the rows of a ValueList are only ever added at the end, the
+ *  values it refers to do not change as its source grows.  A view
+ *  cannot itself be added to: a Table holding views materializes them
+ *  before appending a row (see materialize), so that add and
+ *  removeLast are never called.
+ *  @author Justin Yang */
+class ViewValueList extends ValueList {
+
+    /** A list of the values in rows ROWS[0 .. SIZE-1] of SOURCE.  ROWS
+     *  is not copied, and may be shared with other views. */
+    ViewValueList(ValueList source, int[] rows, int size) {
+        _source = source;
+        _rows = rows;
+        _size = size;
+    }
+
+    /** Return a new ValueList holding my values, represented as my
+     *  source's are. */
+    ValueList materialize() {
+        ValueList result = _source.emptyCopy();
+        for (int k = 0; k < _size; k++) {
+            result.add(get(k));
+        }
+        return result;
+    }
+
+    @Override
+    String get(int row) {
+        return _source.get(sourceRow(row));
+    }
+
+    @Override
+    void add(String value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    void removeLast() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    int size() {
+        return _size;
+    }
+
+    @Override
+    ColumnType getType() {
+        return _source.getType();
+    }
+
+    @Override
+    double getDouble(int row) {
+        return _source.getDouble(sourceRow(row));
+    }
+
+    @Override
+    long getLong(int row) {
+        return _source.getLong(sourceRow(row));
+    }
+
+    @Override
+    StringDictionary getDictionary() {
+        return _source.getDictionary();
+    }
+
+    @Override
+    int getCode(int row) {
+        return _source.getCode(sourceRow(row));
+    }
+
+    @Override
+    int compare(int row0, int row1) {
+        return _source.compare(sourceRow(row0), sourceRow(row1));
+    }
+
+    @Override
+    int compare(int row0, ValueList other, int row1) {
+        return _source.compare(sourceRow(row0), other, row1);
+    }
+
+    @Override
+    int compareTo(int row, String value) {
+        return _source.compareTo(sourceRow(row), value);
+    }
+
+    /** Returns only my own overhead: the values are counted as part of
+     *  my source, and the row numbers as part of the view Table that
+     *  shares them among its columns. */
+    @Override
+    long memoryUsage() {
+        return 2 * HEADER_BYTES;
+    }
+
+    @Override
+    ValueList emptyCopy() {
+        return _source.emptyCopy();
+    }
+
+    /** Return the row of my source that is my row ROW. */
+    private int sourceRow(int row) {
+        if (row < 0 || row >= _size) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        return _rows[row];
+    }
+
+    /** The list whose values I select. */
+    private final ValueList _source;
+    /** My row k is row _rows[k] of _source. */
+    private final int[] _rows;
+    /** My number of rows. */
+    private final int _size;
+}